@@ -0,0 +1,264 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams certificate rows out of a CSV or NDJSON upload one at a time, so a batch of
+ * any size is never held in memory as a whole.
+ *
+ * CSV input needs a header line naming the columns; NDJSON input is one flat JSON
+ * object per line. Column names follow the /generate form fields (name, certType,
+ * courseName, date, instructor, hours); type and course are accepted as aliases.
+ * A malformed row is reported as a failed row instead of aborting the upload.
+ */
+public class BatchInput implements Iterator<BatchInput.Row> {
+
+    public enum Format { CSV, NDJSON }
+
+    private static final int NONE = -2;
+
+    public static class Row {
+        public final int number;
+        public final Map<String, String> fields;
+        public final String error;
+
+        Row(int number, Map<String, String> fields, String error) {
+            this.number = number;
+            this.fields = fields;
+            this.error = error;
+        }
+
+        public String get(String field) {
+            return fields.getOrDefault(field, "");
+        }
+    }
+
+    private final Reader reader;
+    private final Format format;
+    private final StringBuilder field = new StringBuilder();
+    private final StringBuilder tail = new StringBuilder();
+    private CharSequence replay;
+    private int replayAt;
+    private int lookahead = NONE;
+    private boolean unterminated;
+    private List<String> header;
+    private int rowNumber;
+    private Row next;
+    private boolean eof;
+
+    public BatchInput(Reader reader, Format format) {
+        this.reader = reader.markSupported() ? reader : new BufferedReader(reader, 1 << 16);
+        this.format = format;
+    }
+
+    /**
+     * Picks the format from a Content-Type header or a format=csv|ndjson parameter.
+     */
+    public static Format detect(String contentType, String formatParam) {
+        String hint = formatParam != null ? formatParam : contentType != null ? contentType : "";
+        hint = hint.toLowerCase();
+        if (hint.contains("ndjson") || hint.contains("json")) {
+            return Format.NDJSON;
+        }
+        return Format.CSV;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !eof) {
+            try {
+                next = format == Format.CSV ? readCsvRow() : readJsonRow();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Row next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Row row = next;
+        next = null;
+        return row;
+    }
+
+    /**
+     * Skips rows that an earlier run already processed.
+     */
+    public void skip(long rows) {
+        for (long i = 0; i < rows && hasNext(); i++) {
+            next();
+        }
+    }
+
+    private Row readCsvRow() throws IOException {
+        if (header == null) {
+            List<String> names = readCsvRecord();
+            if (names == null) {
+                eof = true;
+                return null;
+            }
+            // Spreadsheet exports often start with a UTF-8 byte order mark
+            if (names.get(0).startsWith("\uFEFF")) {
+                names.set(0, names.get(0).substring(1));
+            }
+            header = new ArrayList<>();
+            for (String name : names) {
+                header.add(canonical(name.trim()));
+            }
+        }
+        List<String> values;
+        do {
+            values = readCsvRecord();
+            if (values == null) {
+                eof = true;
+                return null;
+            }
+        } while (values.size() == 1 && values.get(0).isEmpty() && !unterminated);
+
+        rowNumber++;
+        if (unterminated) {
+            return new Row(rowNumber, Map.of(), "Unterminated quoted field");
+        }
+        if (values.size() > header.size()) {
+            return new Row(rowNumber, Map.of(), "Expected " + header.size() + " columns but found " + values.size());
+        }
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < values.size(); i++) {
+            fields.put(header.get(i), values.get(i).trim());
+        }
+        return new Row(rowNumber, fields, null);
+    }
+
+    /**
+     * Reads one RFC 4180 record; quoted fields may contain commas, quotes and newlines.
+     * A quote still open at the end of the input marks the record as unterminated, and
+     * reading resumes after the first line break the record took inside quotes, so one
+     * stray quote costs one row instead of the rest of the upload.
+     */
+    private List<String> readCsvRecord() throws IOException {
+        List<String> values = new ArrayList<>();
+        field.setLength(0);
+        tail.setLength(0);
+        unterminated = false;
+        boolean quoted = false;
+        boolean inTail = false;
+        boolean any = false;
+        int c;
+        while ((c = read()) != -1) {
+            any = true;
+            if (inTail) {
+                tail.append((char) c);
+            }
+            if (quoted) {
+                if (c == '"') {
+                    int peek = read();
+                    if (peek == '"') {
+                        field.append('"');
+                        if (inTail) {
+                            tail.append('"');
+                        }
+                    } else {
+                        quoted = false;
+                        lookahead = peek;
+                    }
+                } else {
+                    if (c == '\n') {
+                        inTail = true;
+                    }
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+        }
+        if (!any) {
+            return null;
+        }
+        if (quoted) {
+            unterminated = true;
+            if (inTail) {
+                replay = tail.toString();
+                replayAt = 0;
+            }
+        }
+        values.add(field.toString());
+        return values;
+    }
+
+    private int read() throws IOException {
+        if (lookahead != NONE) {
+            int c = lookahead;
+            lookahead = NONE;
+            return c;
+        }
+        if (replay != null) {
+            if (replayAt < replay.length()) {
+                return replay.charAt(replayAt++);
+            }
+            replay = null;
+        }
+        return reader.read();
+    }
+
+    private Row readJsonRow() throws IOException {
+        String line;
+        do {
+            line = readLine();
+            if (line == null) {
+                eof = true;
+                return null;
+            }
+        } while (line.trim().isEmpty());
+
+        rowNumber++;
+        try {
+            Map<String, String> fields = new HashMap<>();
+            RequestParams.parseJson(line).forEach((name, value) -> fields.put(canonical(name), value.trim()));
+            return new Row(rowNumber, fields, null);
+        } catch (RequestParams.InvalidRequestException e) {
+            return new Row(rowNumber, Map.of(), e.getMessage());
+        }
+    }
+
+    private String readLine() throws IOException {
+        field.setLength(0);
+        int c;
+        boolean any = false;
+        while ((c = reader.read()) != -1) {
+            any = true;
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                field.append((char) c);
+            }
+        }
+        return any ? field.toString() : null;
+    }
+
+    private static String canonical(String column) {
+        switch (column) {
+            case "type": return "certType";
+            case "course": return "courseName";
+            default: return column;
+        }
+    }
+}
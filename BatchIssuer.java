@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Issues certificates for a stream of batch rows. Rows are taken a chunk at a time,
+ * their PDFs are rendered in parallel on a dedicated pool, and every successfully
+ * rendered record of the chunk is committed to the registry with one ledger write
+ * and one fsync before the chunk's results are reported.
+ *
+ * Configured with cert.batch.threads (default: cores) and cert.batch.chunk (default: 500).
+ */
+public class BatchIssuer {
+
+    public interface Listener {
+        void rowDone(int row, CertificateRecord record, String error) throws IOException;
+
+        /**
+         * Called just before a chunk is committed, with its rows and their records (null
+         * where a row failed), so a caller can note what is about to be issued.
+         */
+        default void chunkReady(List<BatchInput.Row> rows, CertificateRecord[] records) throws IOException {
+        }
+
+        default void chunkCommitted(int lastRow) throws IOException {
+        }
+    }
+
+    public static class Summary {
+        public int issued;
+        public int failed;
+        public boolean cancelled;
+    }
+
+    private static final String[] FIELDS = {"name", "certType", "courseName", "date", "instructor", "hours"};
+
+    private final CertificateGenerator generator;
+    private final CertificateRegistry registry;
+    private final ExecutorService renderPool;
+    private final int chunkSize;
+
+    public BatchIssuer(CertificateGenerator generator, CertificateRegistry registry, int threads, int chunkSize) {
+        this.generator = generator;
+        this.registry = registry;
+        this.chunkSize = Math.max(1, chunkSize);
+        AtomicInteger counter = new AtomicInteger();
+        this.renderPool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "batch-render-" + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static BatchIssuer fromSystemProperties(CertificateGenerator generator, CertificateRegistry registry) {
+        return new BatchIssuer(generator, registry,
+                Integer.getInteger("cert.batch.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("cert.batch.chunk", 500));
+    }
+
+    public Summary run(Iterator<BatchInput.Row> rows, BooleanSupplier cancelled, Listener listener)
+            throws IOException, InterruptedException {
+        Summary summary = new Summary();
+        List<BatchInput.Row> chunk = new ArrayList<>(chunkSize);
+        List<Future<CertificateRecord>> renders = new ArrayList<>(chunkSize);
+
+        while (rows.hasNext()) {
+            if (cancelled.getAsBoolean()) {
+                summary.cancelled = true;
+                break;
+            }
+            chunk.clear();
+            renders.clear();
+            while (chunk.size() < chunkSize && rows.hasNext()) {
+                BatchInput.Row row = rows.next();
+                chunk.add(row);
+                renders.add(rejection(row) == null ? submit(row) : null);
+            }
+
+            String[] errors = new String[chunk.size()];
+            CertificateRecord[] records = new CertificateRecord[chunk.size()];
+            List<CertificateRecord> rendered = new ArrayList<>(chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                BatchInput.Row row = chunk.get(i);
+                Future<CertificateRecord> render = renders.get(i);
+                if (render == null) {
+                    errors[i] = rejection(row);
+                    continue;
+                }
+                try {
+                    records[i] = render.get();
+                    rendered.add(records[i]);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    errors[i] = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+                }
+            }
+
+            listener.chunkReady(chunk, records);
+            registry.issueAll(rendered);
+
+            for (int i = 0; i < chunk.size(); i++) {
+                if (records[i] != null) {
+                    summary.issued++;
+                } else {
+                    summary.failed++;
+                }
+                listener.rowDone(chunk.get(i).number, records[i], errors[i]);
+            }
+            listener.chunkCommitted(chunk.get(chunk.size() - 1).number);
+        }
+        return summary;
+    }
+
+    /**
+     * Why a row cannot be issued, or null if it can. Oversize fields are caught here, as
+     * one failed row, rather than by the ledger when the whole chunk is committed.
+     */
+    private static String rejection(BatchInput.Row row) {
+        if (row.error != null) {
+            return row.error;
+        }
+        if (row.get("name").isEmpty()) {
+            return "Missing name";
+        }
+        for (String field : FIELDS) {
+            if (!CertificateRecord.fits(row.get(field))) {
+                return "Field " + field + " is longer than " + CertificateRecord.MAX_FIELD_BYTES + " bytes";
+            }
+        }
+        return null;
+    }
+
+    private Future<CertificateRecord> submit(BatchInput.Row row) {
+        CertificateRecord record = generator.newRecord(row.get("name"), row.get("certType"),
+                row.get("courseName"), row.get("date"), row.get("instructor"), row.get("hours"));
+        if (!generator.rendersOnIssue()) {
+            return CompletableFuture.completedFuture(record);
+        }
+        return renderPool.submit(() -> {
+            generator.render(record);
+            return record;
+        });
+    }
+
+    CertificateRegistry registry() {
+        return registry;
+    }
+
+    public void shutdown() {
+        renderPool.shutdownNow();
+    }
+}
@@ -0,0 +1,245 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Hands out certificate PDFs for download from two size-bounded LRU tiers: rendered
+ * bytes in memory, then the certificate store. A certificate found in neither is
+ * rendered from its registry record, which gives the same bytes every time (unless
+ * PDFs are signed), and kept in both tiers. Concurrent first requests for one
+ * certificate share a single render.
+ *
+ * In eager mode (cert.render.mode=eager, the default) every PDF is written at issue
+ * time and the disk tier is never trimmed. In lazy mode issuing only records the
+ * certificate, and the disk tier is capped at cert.artifacts.diskBytes (default: 1 GB),
+ * deleting the least recently downloaded PDFs. The memory tier holds up to
+ * cert.artifacts.memoryBytes (default: 64 MB) in both modes.
+ */
+public class CertificateArtifacts {
+
+    /**
+     * A PDF ready to send: either bytes from memory or a stored blob; close it when done.
+     */
+    public static final class Artifact implements Closeable {
+        public final byte[] bytes;
+        public final CertificateStore.Blob blob;
+
+        Artifact(byte[] bytes, CertificateStore.Blob blob) {
+            this.bytes = bytes;
+            this.blob = blob;
+        }
+
+        public long length() {
+            return bytes != null ? bytes.length : blob.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (blob != null) {
+                blob.close();
+            }
+        }
+    }
+
+    private static final Metrics.Counter MEMORY_HITS = Metrics.cacheLookups("artifact_memory", "hit");
+    private static final Metrics.Counter MEMORY_MISSES = Metrics.cacheLookups("artifact_memory", "miss");
+    private static final Metrics.Counter STORE_HITS = Metrics.cacheLookups("artifact_store", "hit");
+    private static final Metrics.Counter STORE_MISSES = Metrics.cacheLookups("artifact_store", "miss");
+
+    private final CertificateRegistry registry;
+    private final CertificateGenerator generator;
+    private final CertificateStore store;
+    private final long memoryBudget;
+    private final long diskBudget;
+    private final Map<String, CompletableFuture<byte[]>> rendering = new ConcurrentHashMap<>();
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+
+    // Only tracked when the disk tier is bounded
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(1024, 0.75f, true);
+    private long diskBytes;
+
+    public CertificateArtifacts(CertificateRegistry registry, CertificateGenerator generator,
+                                long memoryBudget, long diskBudget) throws IOException {
+        this.registry = registry;
+        this.generator = generator;
+        this.store = generator.store();
+        this.memoryBudget = memoryBudget;
+        this.diskBudget = diskBudget;
+        if (diskBudget > 0 && !store.reclaimsSpace()) {
+            // Every eviction and re-render would append the PDF again, so the cap could never hold
+            throw new IllegalArgumentException("cert.artifacts.diskBytes cannot be enforced on a packed store; "
+                    + "use a flat or sharded store for lazy rendering, or set cert.artifacts.diskBytes=0");
+        }
+        if (diskBudget > 0) {
+            indexDisk();
+        }
+        Metrics.gauge("cert_artifact_memory_bytes", "Rendered PDF bytes held in memory", this::memoryBytes);
+    }
+
+    public static CertificateArtifacts fromSystemProperties(CertificateRegistry registry,
+                                                            CertificateGenerator generator) throws IOException {
+        long diskBudget = generator.rendersOnIssue() ? 0 : Long.getLong("cert.artifacts.diskBytes", 1L << 30);
+        return new CertificateArtifacts(registry, generator,
+                Long.getLong("cert.artifacts.memoryBytes", 64L << 20), diskBudget);
+    }
+
+    /**
+     * Whether a certificate's PDF is always the same bytes. Not so for signed PDFs in lazy
+     * mode, where one evicted from both tiers is rendered and signed anew.
+     */
+    public boolean reproducible() {
+        return !generator.signs() || diskBudget <= 0;
+    }
+
+    /**
+     * Whether a certificate was issued, and so has a PDF to serve, without opening it.
+     */
+    public boolean issued(String certId) {
+        return registry.get(certId) != null;
+    }
+
+    /**
+     * Returns the PDF of a certificate, rendering it if neither tier has it, or null if
+     * no such certificate was issued.
+     */
+    public Artifact open(String certId) throws Exception {
+        byte[] cached = fromMemory(certId);
+        if (cached != null) {
+            MEMORY_HITS.inc();
+            return new Artifact(cached, null);
+        }
+        MEMORY_MISSES.inc();
+
+        CertificateStore.Blob blob = store.open(certId);
+        if (blob != null) {
+            STORE_HITS.inc();
+            touchDisk(certId);
+            return new Artifact(null, blob);
+        }
+        STORE_MISSES.inc();
+        // Not rendered yet, or evicted: render it
+
+        CertificateRecord record = registry.get(certId);
+        if (record == null) {
+            return null;
+        }
+        return new Artifact(render(record), null);
+    }
+
+    private byte[] render(CertificateRecord record) throws Exception {
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = rendering.putIfAbsent(record.id(), mine);
+        if (running != null) {
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        try {
+            byte[] pdf = generator.renderBytes(record);
+            toMemory(record.id(), pdf);
+            toDisk(record.id(), pdf);
+            mine.complete(pdf);
+            return pdf;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            rendering.remove(record.id());
+        }
+    }
+
+    private synchronized long memoryBytes() {
+        return memoryBytes;
+    }
+
+    private synchronized byte[] fromMemory(String certId) {
+        return memory.get(certId);
+    }
+
+    private synchronized void toMemory(String certId, byte[] pdf) {
+        if (pdf.length > memoryBudget) {
+            return;
+        }
+        byte[] previous = memory.put(certId, pdf);
+        memoryBytes += pdf.length - (previous != null ? previous.length : 0);
+        Iterator<byte[]> eldest = memory.values().iterator();
+        while (memoryBytes > memoryBudget && eldest.hasNext()) {
+            memoryBytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    private void toDisk(String certId, byte[] pdf) throws IOException {
+        store.put(certId, pdf);
+        if (diskBudget <= 0) {
+            return;
+        }
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (disk) {
+            Long previous = disk.put(certId, (long) pdf.length);
+            diskBytes += pdf.length - (previous != null ? previous : 0);
+            Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+            while (diskBytes > diskBudget && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(certId)) {
+                    continue;
+                }
+                diskBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (String id : evicted) {
+            store.delete(id);
+        }
+    }
+
+    private void touchDisk(String certId) {
+        if (diskBudget > 0) {
+            synchronized (disk) {
+                disk.get(certId);
+            }
+        }
+    }
+
+    /**
+     * Seeds the disk tier from the PDFs already stored, oldest first, and trims it to
+     * the budget.
+     */
+    private void indexDisk() throws IOException {
+        List<CertificateStore.Entry> files = new ArrayList<>();
+        store.scan(files::add);
+        files.sort(Comparator.comparingLong(CertificateStore.Entry::lastAccess));
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (disk) {
+            for (CertificateStore.Entry f : files) {
+                disk.put(f.id(), f.size());
+                diskBytes += f.size();
+            }
+            Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+            while (diskBytes > diskBudget && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                diskBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (String id : evicted) {
+            store.delete(id);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Micro-benchmarks for the certificate hot paths: end-to-end generation and its parts
+ * (template layout, QR encoding, PDF rendering), registry issue and revoke, /list
+ * query parsing and page serialisation, and /search at several registry sizes.
+ *
+ * Each benchmark is warmed up, then measured over several timed iterations on the
+ * calling thread. Besides throughput it reports the bytes allocated per operation and
+ * the allocation rate (the same figures as JMH's gc.alloc.rate.norm and gc.alloc.rate),
+ * taken from the thread's allocation counter, plus the collections that ran meanwhile.
+ *
+ * Everything the benchmarks write goes to a temporary directory that is removed afterwards:
+ *
+ *   java -Xmx4g -cp ".:lib/*" CertificateBenchmark
+ *
+ * Tuned with bench.warmup (seconds, default: 5), bench.time (seconds per iteration,
+ * default: 2), bench.iterations (default: 5), bench.sizes (registry sizes, default:
+ * 1000,100000,1000000) and bench.only (run benchmarks whose name contains this text).
+ */
+public class CertificateBenchmark {
+
+    /**
+     * One benchmarked operation; whatever it returns is consumed so the JIT cannot
+     * drop the work that produced it.
+     */
+    interface Operation {
+        Object run(int i) throws Exception;
+    }
+
+    private static final String[] FIRST_NAMES = {"Ada", "Alan", "Grace", "Linus", "Barbara", "Edsger",
+                                                 "Margaret", "Donald", "Frances", "Ken"};
+    private static final String[] LAST_NAMES = {"Lovelace", "Turing", "Hopper", "Torvalds", "Liskov",
+                                                "Dijkstra", "Hamilton", "Knuth", "Allen", "Thompson"};
+    private static final String[] TYPES = {"Course Completion", "Participation", "Achievement"};
+    private static final String[] COURSES = {"Java Programming", "Distributed Systems", "Compilers",
+                                             "Operating Systems", ""};
+
+    private final long warmupNanos;
+    private final long iterationNanos;
+    private final int iterations;
+    private final String only;
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // Blackhole: no result is ever this marker, but the JIT has to compare each one against it
+    private volatile Object marker = new Object();
+    private Object sink;
+
+    public CertificateBenchmark(long warmupSeconds, long iterationSeconds, int iterations, String only) {
+        this.warmupNanos = warmupSeconds * 1_000_000_000L;
+        this.iterationNanos = iterationSeconds * 1_000_000_000L;
+        this.iterations = Math.max(1, iterations);
+        this.only = only;
+    }
+
+    public static void main(String[] args) throws Exception {
+        CertificateBenchmark bench = new CertificateBenchmark(Long.getLong("bench.warmup", 5),
+                Long.getLong("bench.time", 2), Integer.getInteger("bench.iterations", 5),
+                System.getProperty("bench.only"));
+        List<Integer> sizes = new ArrayList<>();
+        for (String size : System.getProperty("bench.sizes", "1000,100000,1000000").split(",")) {
+            sizes.add(Integer.parseInt(size.trim()));
+        }
+
+        Path work = Files.createTempDirectory("cert-bench");
+        try {
+            System.out.printf("%-32s %12s %12s %10s %12s %12s %6s%n",
+                              "Benchmark", "ops/s", "us/op", "+/- us/op", "B/op", "alloc MB/s", "GCs");
+            bench.generation(work.resolve("generate"));
+            bench.parsing();
+            for (int size : sizes) {
+                bench.registry(work.resolve("registry-" + size), size);
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    private void generation(Path dir) throws Exception {
+        if (!selected("generate.endToEnd", "generate.layout", "generate.qrEncode", "generate.render",
+                      "generate.renderSigned")) {
+            return;
+        }
+        try (CertificateLedger ledger = CertificateLedger.open(dir.resolve("certificates.ledger"), null, 0)) {
+            CertificateRegistry registry = CertificateRegistry.load(ledger);
+            CertificateGenerator generator = new CertificateGenerator(registry, new CertificateIdGenerator(999),
+                    new FileCertificateStore(dir.resolve("certificates"), false), true);
+
+            measure("generate.endToEnd", i -> generator.generateCertificate(
+                    name(i), TYPES[i % TYPES.length], COURSES[i % COURSES.length], "2025-06-01",
+                    "Dr. Smith", "40"));
+            measure("generate.layout", i -> CertificateGenerator.compileTemplate(TYPES[i % TYPES.length],
+                    true, true));
+            QRCodeWriter qr = new QRCodeWriter();
+            measure("generate.qrEncode", i -> qr.encode("Certificate ID: CERT" + i + "\nName: " + name(i) +
+                    "\nType: Participation\nDate: 2025-06-01", BarcodeFormat.QR_CODE, 80, 80));
+            // The PDF bytes are written out, so the stream is their sink
+            measure("generate.render", i -> {
+                generator.render(generator.newRecord(name(i), TYPES[i % TYPES.length],
+                        COURSES[i % COURSES.length], "2025-06-01", "Dr. Smith", "40"), OutputStream.nullOutputStream());
+                return null;
+            });
+
+            // Only with a signing key configured (cert.sign.keystore and friends)
+            CertificateSigner signer = CertificateSigner.fromSystemProperties();
+            if (signer != null) {
+                CertificateGenerator signing = new CertificateGenerator(registry, new CertificateIdGenerator(999),
+                        new FileCertificateStore(dir.resolve("certificates"), false), true, signer);
+                try {
+                    measure("generate.renderSigned", i -> {
+                        signing.render(signing.newRecord(name(i), TYPES[i % TYPES.length],
+                                COURSES[i % COURSES.length], "2025-06-01", "Dr. Smith", "40"),
+                                OutputStream.nullOutputStream());
+                        return null;
+                    });
+                } finally {
+                    signer.shutdown();
+                }
+            }
+        }
+    }
+
+    private void parsing() throws Exception {
+        String query = "limit=50&order=desc&status=Active&type=Course%20Completion&course=Java%20Programming" +
+                       "&from=2025-01-01&to=2025-12-31&name=ada&after=CERT1792209188239000000";
+        measure("list.parseQuery", i -> RequestParams.parseQuery(query));
+    }
+
+    private void registry(Path dir, int size) throws Exception {
+        String suffix = "[" + size + "]";
+        if (!selected("registry.load" + suffix, "list.page" + suffix, "list.filtered" + suffix,
+                      "search.index" + suffix, "search.name" + suffix, "search.prefix" + suffix,
+                      "registry.issue" + suffix, "registry.revoke" + suffix)) {
+            return;
+        }
+        CertificateIdGenerator ids = new CertificateIdGenerator(998);
+        Path file = dir.resolve("certificates.ledger");
+        try (CertificateLedger ledger = CertificateLedger.open(file, null, 0)) {
+            List<CertificateRecord> chunk = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                chunk.add(record(ids.nextId(), i));
+                if (chunk.size() == 10_000) {
+                    ledger.appendIssues(chunk);
+                    chunk.clear();
+                }
+            }
+            ledger.appendIssues(chunk);
+        }
+
+        long start = System.nanoTime();
+        try (CertificateLedger ledger = CertificateLedger.open(file, null, 0)) {
+            CertificateRegistry registry = CertificateRegistry.load(ledger);
+            System.out.printf("%-32s %d records replayed in %d ms%n", "registry.load" + suffix, registry.size(),
+                              (System.nanoTime() - start) / 1_000_000);
+
+            OutputStream discard = OutputStream.nullOutputStream();
+            measure("list.page" + suffix, i -> writePage(discard,
+                    registry.find(new CertificateRegistry.Filter(), null, false)));
+            measure("list.filtered" + suffix, i -> {
+                Map<String, String> params = RequestParams.parseQuery("limit=50&order=desc&type=Achievement&name=gr");
+                return writePage(discard, registry.find(new CertificateRegistry.Filter()
+                        .type(params.get("type")).namePrefix(params.get("name")), null, true));
+            });
+
+            if (selected("search.index" + suffix, "search.name" + suffix, "search.prefix" + suffix)) {
+                start = System.nanoTime();
+                CertificateSearch search = new CertificateSearch(registry, 50_000);
+                System.out.printf("%-32s %d records indexed in %d ms%n", "search.index" + suffix, registry.size(),
+                                  (System.nanoTime() - start) / 1_000_000);
+                measure("search.name" + suffix, i -> search.search("grace hop", null, 20));
+                measure("search.prefix" + suffix, i -> search.search("a", null, 20));
+            }
+            measure("registry.issue" + suffix, i -> {
+                CertificateRecord record = record(ids.nextId(), i);
+                registry.issue(record);
+                return record;
+            });
+            // Walk the active certificates so every operation is a real revocation with its fsync;
+            // once all are revoked, one batched issue (a single extra fsync) tops them up
+            CertificateRegistry.Filter active = new CertificateRegistry.Filter().status(CertificateRecord.ACTIVE);
+            List<Iterator<CertificateRecord>> cursor = new ArrayList<>(List.of(registry.find(active, null, false)));
+            measure("registry.revoke" + suffix, i -> {
+                if (!cursor.get(0).hasNext()) {
+                    List<CertificateRecord> refill = new ArrayList<>();
+                    for (int n = 0; n < 1000; n++) {
+                        refill.add(record(ids.nextId(), i + n));
+                    }
+                    registry.issueAll(refill);
+                    cursor.set(0, registry.find(active, null, false));
+                }
+                return registry.revoke(cursor.get(0).next().id());
+            });
+        }
+        deleteRecursively(dir);
+    }
+
+    private static int writePage(OutputStream out, Iterator<CertificateRecord> records) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        int count = 0;
+        for (; count < 50 && records.hasNext(); count++) {
+            WebServer.ListCertificatesHandler.writeRecord(json, records.next());
+        }
+        json.flush();
+        return count;
+    }
+
+    private void measure(String name, Operation operation) throws Exception {
+        if (!selected(name)) {
+            return;
+        }
+        int i = 0;
+        long warmupEnd = System.nanoTime() + warmupNanos;
+        while (System.nanoTime() < warmupEnd) {
+            consume(operation.run(i++));
+        }
+
+        double[] nanosPerOp = new double[iterations];
+        long totalOps = 0;
+        long totalNanos = 0;
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long gcBefore = collections();
+        for (int it = 0; it < iterations; it++) {
+            long ops = 0;
+            long begin = System.nanoTime();
+            long end = begin + iterationNanos;
+            long now;
+            do {
+                consume(operation.run(i++));
+                ops++;
+                now = System.nanoTime();
+            } while (now < end);
+            nanosPerOp[it] = (double) (now - begin) / ops;
+            totalOps += ops;
+            totalNanos += now - begin;
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        long gcs = collections() - gcBefore;
+
+        double mean = (double) totalNanos / totalOps;
+        double variance = 0;
+        for (double sample : nanosPerOp) {
+            variance += (sample - mean) * (sample - mean);
+        }
+        double error = Math.sqrt(variance / iterations);
+        System.out.printf("%-32s %12.1f %12.2f %10.2f %12d %12.1f %6d%n", name,
+                          totalOps * 1e9 / totalNanos, mean / 1000, error / 1000, allocated / totalOps,
+                          allocated * 1e9 / totalNanos / (1024 * 1024), gcs);
+    }
+
+    private void consume(Object result) {
+        if (result == marker) {
+            sink = result;
+        }
+    }
+
+    private boolean selected(String... names) {
+        for (String name : names) {
+            if (only == null || name.contains(only)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static String name(int i) {
+        return FIRST_NAMES[i % FIRST_NAMES.length] + " " + LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length];
+    }
+
+    private static CertificateRecord record(String id, int i) {
+        return new CertificateRecord(id, name(i), TYPES[i % TYPES.length], COURSES[i % COURSES.length],
+                                     "2025-" + String.format("%02d", 1 + i % 12) + "-01", "Dr. Smith", "40",
+                                     "2025-06-01 12:00:00", CertificateRecord.ACTIVE);
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
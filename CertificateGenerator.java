@@ -1,42 +1,360 @@
 import com.itextpdf.text.*;
 import com.itextpdf.text.pdf.*;
 import com.google.zxing.BarcodeFormat;
-import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.WriterException;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
 
 public class CertificateGenerator {
     
     private static final String CERT_DIR = "certificates/";
     private static final String DATA_DIR = "data/";
-    private static final String XML_FILE = DATA_DIR + "certificates.xml";
     
-    public CertificateGenerator() {
+    // Bump whenever the rendered PDF changes, so download ETags change with it
+    static final int LAYOUT_REVISION = 3;
+    
+    // Public address of this server; when set, the QR code carries a /verify link
+    private static final String VERIFY_BASE_URL = System.getProperty("cert.verifyBaseUrl");
+    
+    // Form fields a certificate is issued from, as named in error messages
+    private static final String[] FIELD_NAMES = {"name", "certType", "courseName", "date", "instructor", "hours"};
+    
+    // Usable width of the main table column and of each footer column, in points
+    private static final float MAIN_COLUMN_WIDTH = 640f;
+    private static final float FOOTER_COLUMN_WIDTH = 310f;
+    
+    // Fonts of the per-certificate fields, shared by every render
+    private static final Font NAME_FONT = new Font(Font.FontFamily.TIMES_ROMAN, 36, Font.BOLD, 
+                                                   new BaseColor(44, 62, 80));
+    private static final Font BODY_FONT = new Font(Font.FontFamily.HELVETICA, 14, Font.NORMAL, 
+                                                   new BaseColor(52, 73, 94));
+    private static final Font COURSE_FONT = new Font(Font.FontFamily.HELVETICA, 22, Font.BOLD, 
+                                                     new BaseColor(41, 128, 185));
+    private static final Font SMALL_FONT = new Font(Font.FontFamily.HELVETICA, 12, Font.NORMAL, 
+                                                    new BaseColor(52, 73, 94));
+    private static final Font ID_FONT = new Font(Font.FontFamily.HELVETICA, 8, Font.NORMAL, 
+                                                 new BaseColor(127, 140, 141));
+    
+    // Compiled static layers keyed by certificate type and which optional fields are present;
+    // bounded, as the type is whatever the client sends
+    private static final int TEMPLATE_CACHE_SIZE = Integer.getInteger("cert.template.cacheSize", 64);
+    private static final Map<String, CertificateTemplate> TEMPLATES =
+            new LinkedHashMap<String, CertificateTemplate>(32, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CertificateTemplate> eldest) {
+            return size() > TEMPLATE_CACHE_SIZE;
+        }
+    };
+    
+    // QR matrices of recently rendered payloads, so re-rendering a certificate skips the encoder
+    private static final float QR_SIZE = 80f;
+    private static final int QR_CACHE_SIZE = Integer.getInteger("cert.qr.cacheSize", 256);
+    private static final Map<String, BitMatrix> QR_CACHE = new LinkedHashMap<String, BitMatrix>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BitMatrix> eldest) {
+            return size() > QR_CACHE_SIZE;
+        }
+    };
+    
+    // Where issuing a certificate spends its time, and how often the caches above help
+    private static final Metrics.Histogram LAYOUT_TIME = stageTimer("layout");
+    private static final Metrics.Histogram QR_TIME = stageTimer("qr");
+    private static final Metrics.Histogram PDF_TIME = stageTimer("pdf");
+    private static final Metrics.Histogram STORE_TIME = stageTimer("store");
+    private static final Metrics.Histogram LEDGER_TIME = stageTimer("ledger");
+    private static final Metrics.Histogram SIGN_TIME = stageTimer("sign");
+    private static final Metrics.Counter TEMPLATE_HITS = Metrics.cacheLookups("template", "hit");
+    private static final Metrics.Counter TEMPLATE_MISSES = Metrics.cacheLookups("template", "miss");
+    private static final Metrics.Counter QR_HITS = Metrics.cacheLookups("qr", "hit");
+    private static final Metrics.Counter QR_MISSES = Metrics.cacheLookups("qr", "miss");
+    
+    private final CertificateRegistry registry;
+    private final CertificateIdGenerator idGenerator;
+    private final CertificateStore store;
+    private final boolean renderOnIssue;
+    private final CertificateSigner signer;
+    
+    public CertificateGenerator(CertificateRegistry registry, CertificateIdGenerator idGenerator) 
+            throws IOException {
+        this(registry, idGenerator, new FileCertificateStore(Path.of(CERT_DIR), false), true);
+    }
+    
+    /**
+     * With renderOnIssue off, issuing only records the certificate and the PDF is
+     * rendered from the record when it is first downloaded.
+     */
+    public CertificateGenerator(CertificateRegistry registry, CertificateIdGenerator idGenerator,
+                                CertificateStore store, boolean renderOnIssue) {
+        this(registry, idGenerator, store, renderOnIssue, null);
+    }
+    
+    /**
+     * With a signer, every rendered PDF is signed before it is stored or handed out.
+     */
+    public CertificateGenerator(CertificateRegistry registry, CertificateIdGenerator idGenerator,
+                                CertificateStore store, boolean renderOnIssue, CertificateSigner signer) {
+        this.registry = registry;
+        this.idGenerator = idGenerator;
+        this.store = store;
+        this.renderOnIssue = renderOnIssue;
+        this.signer = signer;
         createDirectories();
     }
     
+    public boolean rendersOnIssue() {
+        return renderOnIssue;
+    }
+    
+    public boolean signs() {
+        return signer != null;
+    }
+    
+    public CertificateStore store() {
+        return store;
+    }
+    
     private void createDirectories() {
-        new File(CERT_DIR).mkdirs();
         new File(DATA_DIR).mkdirs();
     }
     
+    public static CertificateLedger openLedger() throws IOException {
+        new File(DATA_DIR).mkdirs();
+        return CertificateLedger.fromSystemProperties(DATA_DIR);
+    }
+    
     public String generateCertificate(String name, String certType, String courseName, 
                                      String date, String instructor, String hours) throws Exception {
-        
-        String certId = generateCertificateId();
-        String filename = CERT_DIR + "certificate_" + certId + ".pdf";
+        CertificateRecord record = newRecord(name, certType, courseName, date, instructor, hours);
+        if (renderOnIssue) {
+            render(record);
+        }
+        long start = System.nanoTime();
+        registry.issue(record);
+        LEDGER_TIME.observeSince(start);
+        return record.id();
+    }
+    
+    /**
+     * Builds the record for a new certificate. Fields the ledger cannot hold are rejected
+     * here, before anything is rendered or stored.
+     */
+    public CertificateRecord newRecord(String name, String certType, String courseName, 
+                                       String date, String instructor, String hours) {
+        String[] values = {name, certType, courseName, date, instructor, hours};
+        for (int i = 0; i < values.length; i++) {
+            if (!CertificateRecord.fits(values[i])) {
+                throw new IllegalArgumentException("Field " + FIELD_NAMES[i] + " is longer than " +
+                                                   CertificateRecord.MAX_FIELD_BYTES + " bytes");
+            }
+        }
+        String generated = generatedFormat().format(new Date());
+        return new CertificateRecord(generateCertificateId(), name, certType, courseName, date,
+                                     instructor, hours, generated, CertificateRecord.ACTIVE);
+    }
+    
+    /**
+     * Stores the PDF for a record without registering it.
+     */
+    public void render(CertificateRecord record) throws Exception {
+        byte[] pdf = renderBytes(record);
+        long start = System.nanoTime();
+        store.put(record.id(), pdf);
+        STORE_TIME.observeSince(start);
+    }
+    
+    /**
+     * Renders a record's PDF. Unless it is signed, the output depends only on the record
+     * and the layout revision, so a PDF rendered again later is byte-for-byte the same file.
+     */
+    public void render(CertificateRecord record, OutputStream out) throws Exception {
+        byte[] pdf = renderBytes(record);
+        out.write(pdf);
+    }
+    
+    public byte[] renderBytes(CertificateRecord record) throws Exception {
+        Metrics.RenderEvent event = new Metrics.RenderEvent();
+        event.begin();
+        long start = System.nanoTime();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(8 * 1024);
+        String certId = record.id();
+        String name = record.name();
+        String certType = record.type();
+        String courseName = record.course();
+        String date = record.date();
+        String instructor = record.instructor();
+        String hours = record.hours();
+        
+        CertificateTemplate template = template(certType, !courseName.isEmpty(), !instructor.isEmpty());
+        // Given back once the document is closed; one lost to an exception is just not reused
+        PdfReader templateReader = template.acquire();
         
         Document document = new Document(PageSize.A4.rotate());
-        PdfWriter writer = PdfWriter.getInstance(document, new FileOutputStream(filename));
+        PdfWriter writer = PdfWriter.getInstance(document, buffer);
         
         document.open();
+        PdfContentByte canvas = writer.getDirectContent();
+        
+        // Date the file by the record rather than by the clock
+        PdfDate issued = issueDate(record);
+        writer.getInfo().put(PdfName.CREATIONDATE, issued);
+        writer.getInfo().put(PdfName.MODDATE, issued);
+        
+        // Stamp the precompiled static layer and fill in this certificate's fields
+        for (int page = 1; page <= template.pageCount(); page++) {
+            if (page > 1) {
+                document.newPage();
+            }
+            template.drawPage(writer, templateReader, page);
+            template.fill(canvas, page, "name", name, NAME_FONT);
+            template.fill(canvas, page, "description", getDescription(certType, courseName, hours), BODY_FONT);
+            template.fill(canvas, page, "course", "\"" + courseName + "\"", COURSE_FONT);
+            template.fill(canvas, page, "date", "Date: " + date, SMALL_FONT);
+            template.fill(canvas, page, "instructor", instructor, SMALL_FONT);
+        }
+        
+        long layoutNanos = LAYOUT_TIME.observeSince(start);
+        
+        // Add QR Code in bottom right
+        start = System.nanoTime();
+        String qrData = "Certificate ID: " + certId + "\nName: " + name + "\nType: " + certType + 
+                       "\nDate: " + date;
+        if (VERIFY_BASE_URL != null) {
+            qrData += "\nVerify: " + VERIFY_BASE_URL + "/verify?id=" + certId;
+        }
+        addQRCode(writer, qrData, 720, 40);
+        long qrNanos = QR_TIME.observeSince(start);
+        start = System.nanoTime();
+        
+        // Add Certificate ID in bottom left
+        Phrase idPhrase = new Phrase("Certificate ID: " + certId, ID_FONT);
+        ColumnText.showTextAligned(canvas, Element.ALIGN_LEFT, idPhrase, 50, 50, 0);
+        
+        document.close();
+        template.release(templateReader);
+        
+        byte[] pdf = buffer.toByteArray();
+        setFileId(pdf, certId);
+        long pdfNanos = PDF_TIME.observeSince(start);
+        
+        if (signer != null) {
+            // Last, so the signature covers the finished file
+            start = System.nanoTime();
+            pdf = signer.sign(pdf);
+            SIGN_TIME.observeSince(start);
+        }
         
+        event.end();
+        if (event.shouldCommit()) {
+            event.certificateId = certId;
+            event.layoutNanos = layoutNanos;
+            event.qrNanos = qrNanos;
+            event.pdfNanos = pdfNanos;
+            event.bytes = pdf.length;
+            event.commit();
+        }
+        return pdf;
+    }
+    
+    private static PdfDate issueDate(CertificateRecord record) {
+        Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        try {
+            calendar.setTime(generatedFormat().parse(record.generated()));
+        } catch (java.text.ParseException e) {
+            calendar.setTimeInMillis(0);
+        }
+        return new PdfDate(calendar);
+    }
+    
+    /**
+     * The format of a record's generated time, always in UTC: the PDF date is derived
+     * from it, so it must not depend on the time zone of the server rendering it.
+     */
+    private static SimpleDateFormat generatedFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+    
+    /**
+     * iText fills the trailer /ID with random bytes; overwrite it in place with a hash
+     * of the certificate ID. Both halves keep their length, so offsets stay valid.
+     */
+    private static void setFileId(byte[] pdf, String certId) throws Exception {
+        byte[] marker = "/ID [<".getBytes(StandardCharsets.ISO_8859_1);
+        int at = lastIndexOf(pdf, marker);
+        if (at < 0 || at + marker.length + 66 > pdf.length) {
+            return;
+        }
+        byte[] digest = MessageDigest.getInstance("MD5")
+                .digest((certId + "-r" + LAYOUT_REVISION).getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(32);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        byte[] id = hex.toString().getBytes(StandardCharsets.ISO_8859_1);
+        int first = at + marker.length;
+        int second = first + 32 + 2;
+        if (pdf[first + 32] != '>' || pdf[first + 33] != '<' || pdf[second + 32] != '>') {
+            return;
+        }
+        System.arraycopy(id, 0, pdf, first, 32);
+        System.arraycopy(id, 0, pdf, second, 32);
+    }
+    
+    private static int lastIndexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = data.length - pattern.length; i >= 0; i--) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+    
+    private CertificateTemplate template(String certType, boolean hasCourse, boolean hasInstructor) throws Exception {
+        String key = certType + '|' + hasCourse + '|' + hasInstructor;
+        synchronized (TEMPLATES) {
+            CertificateTemplate template = TEMPLATES.get(key);
+            if (template != null) {
+                TEMPLATE_HITS.inc();
+                return template;
+            }
+        }
+        TEMPLATE_MISSES.inc();
+        CertificateTemplate template = compileTemplate(certType, hasCourse, hasInstructor);
+        synchronized (TEMPLATES) {
+            CertificateTemplate raced = TEMPLATES.putIfAbsent(key, template);
+            return raced != null ? raced : template;
+        }
+    }
+    
+    static CertificateTemplate compileTemplate(String certType, boolean hasCourse, boolean hasInstructor)
+            throws Exception {
+        return CertificateTemplate.compile(PageSize.A4.rotate(), (document, writer, slots) ->
+                layoutTemplate(document, writer, slots, certType, hasCourse, hasInstructor));
+    }
+    
+    /**
+     * Lays out everything that does not change between certificates of one type. The
+     * variable fields are placeholder slots that render() fills in per certificate.
+     */
+    private static void layoutTemplate(Document document, PdfWriter writer, CertificateTemplate.Slots slots,
+                                       String certType, boolean hasCourse, boolean hasInstructor) throws Exception {
         // Add border
         PdfContentByte canvas = writer.getDirectContent();
         canvas.setLineWidth(3f);
@@ -111,9 +429,7 @@ public class CertificateGenerator {
         nameCell.setPaddingTop(15);
         nameCell.setPaddingBottom(15);
         
-        Font nameFont = new Font(Font.FontFamily.TIMES_ROMAN, 36, Font.BOLD, 
-                                new BaseColor(44, 62, 80));
-        Paragraph namePara = new Paragraph(name, nameFont);
+        Paragraph namePara = new Paragraph(slots.slot("name", NAME_FONT, MAIN_COLUMN_WIDTH));
         namePara.setAlignment(Element.ALIGN_CENTER);
         nameCell.addElement(namePara);
         
@@ -132,26 +448,21 @@ public class CertificateGenerator {
         descCell.setPaddingTop(20);
         descCell.setPaddingBottom(10);
         
-        Font descFont = new Font(Font.FontFamily.HELVETICA, 14, Font.NORMAL, 
-                                new BaseColor(52, 73, 94));
-        String description = getDescription(certType, courseName, hours);
-        Paragraph descPara = new Paragraph(description, descFont);
+        Paragraph descPara = new Paragraph(slots.slot("description", BODY_FONT, MAIN_COLUMN_WIDTH));
         descPara.setAlignment(Element.ALIGN_CENTER);
         descPara.setLeading(20);
         descCell.addElement(descPara);
         table.addCell(descCell);
         
         // Course Name (highlighted)
-        if (!courseName.isEmpty()) {
+        if (hasCourse) {
             PdfPCell courseCell = new PdfPCell();
             courseCell.setBorder(Rectangle.NO_BORDER);
             courseCell.setHorizontalAlignment(Element.ALIGN_CENTER);
             courseCell.setPaddingTop(10);
             courseCell.setPaddingBottom(20);
             
-            Font courseFont = new Font(Font.FontFamily.HELVETICA, 22, Font.BOLD, 
-                                      new BaseColor(41, 128, 185));
-            Paragraph coursePara = new Paragraph("\"" + courseName + "\"", courseFont);
+            Paragraph coursePara = new Paragraph(slots.slot("course", COURSE_FONT, MAIN_COLUMN_WIDTH));
             coursePara.setAlignment(Element.ALIGN_CENTER);
             courseCell.addElement(coursePara);
             table.addCell(courseCell);
@@ -170,9 +481,7 @@ public class CertificateGenerator {
         dateCell.setBorder(Rectangle.NO_BORDER);
         dateCell.setHorizontalAlignment(Element.ALIGN_CENTER);
         
-        Font dateFont = new Font(Font.FontFamily.HELVETICA, 12, Font.NORMAL, 
-                                new BaseColor(52, 73, 94));
-        Paragraph datePara = new Paragraph("Date: " + date, dateFont);
+        Paragraph datePara = new Paragraph(slots.slot("date", SMALL_FONT, FOOTER_COLUMN_WIDTH));
         datePara.setAlignment(Element.ALIGN_CENTER);
         dateCell.addElement(datePara);
         
@@ -188,8 +497,9 @@ public class CertificateGenerator {
         signCell.setBorder(Rectangle.NO_BORDER);
         signCell.setHorizontalAlignment(Element.ALIGN_CENTER);
         
-        Paragraph instructorPara = new Paragraph(instructor.isEmpty() ? "Authorized Signature" : instructor, 
-                                                dateFont);
+        Paragraph instructorPara = hasInstructor
+                ? new Paragraph(slots.slot("instructor", SMALL_FONT, FOOTER_COLUMN_WIDTH))
+                : new Paragraph("Authorized Signature", SMALL_FONT);
         instructorPara.setAlignment(Element.ALIGN_CENTER);
         signCell.addElement(instructorPara);
         
@@ -202,7 +512,7 @@ public class CertificateGenerator {
         
         Font signLabelFont = new Font(Font.FontFamily.HELVETICA, 10, Font.ITALIC, 
                                      new BaseColor(127, 140, 141));
-        Paragraph signLabel = new Paragraph(instructor.isEmpty() ? "Signature" : "Instructor/Authority", 
+        Paragraph signLabel = new Paragraph(hasInstructor ? "Instructor/Authority" : "Signature", 
                                            signLabelFont);
         signLabel.setAlignment(Element.ALIGN_CENTER);
         signLabel.setSpacingBefore(3);
@@ -214,24 +524,6 @@ public class CertificateGenerator {
         table.addCell(footerCell);
         
         document.add(table);
-        
-        // Add QR Code in bottom right
-        String qrData = "Certificate ID: " + certId + "\nName: " + name + "\nType: " + certType + 
-                       "\nDate: " + date;
-        addQRCode(writer, qrData, 720, 40);
-        
-        // Add Certificate ID in bottom left
-        Font idFont = new Font(Font.FontFamily.HELVETICA, 8, Font.NORMAL, 
-                              new BaseColor(127, 140, 141));
-        Phrase idPhrase = new Phrase("Certificate ID: " + certId, idFont);
-        ColumnText.showTextAligned(canvas, Element.ALIGN_LEFT, idPhrase, 50, 50, 0);
-        
-        document.close();
-        
-        // Log to XML
-        logCertificate(certId, name, certType, courseName, date, instructor, hours);
-        
-        return certId;
     }
     
     private String getDescription(String certType, String courseName, String hours) {
@@ -249,66 +541,58 @@ public class CertificateGenerator {
     }
     
     private void addQRCode(PdfWriter writer, String data, float x, float y) throws Exception {
-        QRCodeWriter qrWriter = new QRCodeWriter();
-        BitMatrix bitMatrix = qrWriter.encode(data, BarcodeFormat.QR_CODE, 80, 80);
-        BufferedImage qrImage = MatrixToImageWriter.toBufferedImage(bitMatrix);
-        
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(qrImage, "png", baos);
-        Image qrCode = Image.getInstance(baos.toByteArray());
-        qrCode.setAbsolutePosition(x, y);
-        qrCode.scaleAbsolute(80, 80);
-        writer.getDirectContent().addImage(qrCode);
-    }
-    
-    private String generateCertificateId() {
-        return "CERT" + System.currentTimeMillis();
+        BitMatrix bitMatrix = qrMatrix(data);
+        PdfContentByte canvas = writer.getDirectContent();
+        float module = QR_SIZE / bitMatrix.getWidth();
+        
+        canvas.saveState();
+        canvas.setColorFill(BaseColor.WHITE);
+        canvas.rectangle(x, y, QR_SIZE, QR_SIZE);
+        canvas.fill();
+        
+        // One rectangle per run of dark modules, filled as a single path
+        canvas.setColorFill(BaseColor.BLACK);
+        for (int row = 0; row < bitMatrix.getHeight(); row++) {
+            float top = y + QR_SIZE - (row + 1) * module;
+            int col = 0;
+            while (col < bitMatrix.getWidth()) {
+                if (!bitMatrix.get(col, row)) {
+                    col++;
+                    continue;
+                }
+                int start = col;
+                while (col < bitMatrix.getWidth() && bitMatrix.get(col, row)) {
+                    col++;
+                }
+                canvas.rectangle(x + start * module, top, (col - start) * module, module);
+            }
+        }
+        canvas.fill();
+        canvas.restoreState();
     }
     
-    private void logCertificate(String id, String name, String type, String course, 
-                               String date, String instructor, String hours) {
-        try {
-            File xmlFile = new File(XML_FILE);
-            StringBuilder xml = new StringBuilder();
-            
-            if (xmlFile.exists()) {
-                BufferedReader reader = new BufferedReader(new FileReader(xmlFile));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.contains("</certificates>")) {
-                        break;
-                    }
-                    xml.append(line).append("\n");
-                }
-                reader.close();
-            } else {
-                xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<certificates>\n");
+    private static BitMatrix qrMatrix(String data) throws WriterException {
+        synchronized (QR_CACHE) {
+            BitMatrix cached = QR_CACHE.get(data);
+            if (cached != null) {
+                QR_HITS.inc();
+                return cached;
             }
-            
-            xml.append("  <certificate>\n");
-            xml.append("    <id>").append(id).append("</id>\n");
-            xml.append("    <name>").append(escapeXml(name)).append("</name>\n");
-            xml.append("    <type>").append(escapeXml(type)).append("</type>\n");
-            xml.append("    <course>").append(escapeXml(course)).append("</course>\n");
-            xml.append("    <date>").append(escapeXml(date)).append("</date>\n");
-            xml.append("    <instructor>").append(escapeXml(instructor)).append("</instructor>\n");
-            xml.append("    <hours>").append(escapeXml(hours)).append("</hours>\n");
-            xml.append("    <generated>").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss")
-                      .format(new Date())).append("</generated>\n");
-            xml.append("  </certificate>\n");
-            xml.append("</certificates>");
-            
-            FileWriter writer = new FileWriter(xmlFile);
-            writer.write(xml.toString());
-            writer.close();
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+        QR_MISSES.inc();
+        BitMatrix bitMatrix = new QRCodeWriter().encode(data, BarcodeFormat.QR_CODE, (int) QR_SIZE, (int) QR_SIZE);
+        synchronized (QR_CACHE) {
+            QR_CACHE.put(data, bitMatrix);
+        }
+        return bitMatrix;
     }
     
-    private String escapeXml(String s) {
-        return s.replace("&", "&amp;").replace("<", "&lt;")
-                .replace(">", "&gt;").replace("\"", "&quot;")
-                .replace("'", "&apos;");
+    private static Metrics.Histogram stageTimer(String stage) {
+        return Metrics.histogram("cert_generate_stage_seconds", "Time spent in each stage of issuing a certificate",
+                                 "stage", stage);
+    }
+    
+    private String generateCertificateId() {
+        return idGenerator.nextId();
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,65 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Certificate IDs of the form CERT + 13-digit epoch millis + 3-digit node id + 3-digit
+ * sequence, e.g. CERT1731065400123007042.
+ *
+ * The millis and sequence are packed into one AtomicLong (millis * 1000 + sequence)
+ * and advanced with a CAS, so IDs are unique and strictly increasing per node without
+ * locking. When more than 1000 IDs are needed within one millisecond, or the clock
+ * steps backwards, the generator simply runs ahead of the wall clock until it catches
+ * up. The node id (cert.nodeId, 0-999) keeps servers sharing a registry apart.
+ *
+ * All IDs have the same length, so string order is issue order and the registry can
+ * range-scan by time. IDs from before this scheme (CERT + millis) sort just ahead of
+ * new IDs from the same millisecond.
+ */
+public class CertificateIdGenerator {
+
+    public static final String PREFIX = "CERT";
+
+    private static final int SEQUENCE_RANGE = 1000;
+    private static final int MAX_NODE = 999;
+
+    private final int nodeId;
+    private final AtomicLong state = new AtomicLong();
+
+    public CertificateIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE + ": " + nodeId);
+        }
+        this.nodeId = nodeId;
+    }
+
+    public static CertificateIdGenerator fromSystemProperties() {
+        return new CertificateIdGenerator(Integer.getInteger("cert.nodeId", 0));
+    }
+
+    public String nextId() {
+        long next;
+        while (true) {
+            long previous = state.get();
+            next = Math.max(System.currentTimeMillis() * SEQUENCE_RANGE, previous + 1);
+            if (state.compareAndSet(previous, next)) {
+                break;
+            }
+        }
+        return format(next / SEQUENCE_RANGE, nodeId, (int) (next % SEQUENCE_RANGE));
+    }
+
+    private static String format(long millis, int node, int sequence) {
+        StringBuilder sb = new StringBuilder(PREFIX.length() + 19).append(PREFIX);
+        pad(sb, millis, 13);
+        pad(sb, node, 3);
+        pad(sb, sequence, 3);
+        return sb.toString();
+    }
+
+    private static void pad(StringBuilder sb, long value, int width) {
+        String digits = Long.toString(value);
+        for (int i = digits.length(); i < width; i++) {
+            sb.append('0');
+        }
+        sb.append(digits);
+    }
+}
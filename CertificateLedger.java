@@ -0,0 +1,666 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of certificate issues and revocations (data/certificates.ledger).
+ *
+ * Every entry is framed as [length][crc32][payload] so a write torn by a crash is
+ * detected and cut off on the next start. Appends are handed to a single writer
+ * thread, which drains everything queued since its last commit and writes it with one
+ * gathering write and one fsync, so concurrent writers share both. A background task
+ * periodically compacts the log into a binary snapshot (see CertificateSnapshot),
+ * leaving only the entries appended since then in the log, and re-exports
+ * data/certificates.xml in the original format for downstream consumers. The registry
+ * is the snapshot followed by the log.
+ */
+public class CertificateLedger implements Closeable {
+
+    private static final int MAGIC = 0x434C4447; // "CLDG"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_HEADER_SIZE = 8;
+    private static final int MAX_ENTRY_SIZE = 16 << 20;
+
+    // Version 1 entries, whose strings were written with writeUTF; still read from older logs
+    private static final byte ISSUE_V1 = 1;
+    private static final byte REVOKE_V1 = 2;
+    private static final byte REVOKE_BATCH_V1 = 3;
+    // Strings as [int length][UTF-8 bytes]
+    private static final byte ISSUE = 4;
+    private static final byte REVOKE = 5;
+    private static final byte REVOKE_BATCH = 6;
+
+    public interface Visitor {
+        void onIssue(CertificateRecord record);
+
+        void onRevoke(String id);
+    }
+
+    /**
+     * Framed entries waiting for the writer thread.
+     */
+    private static final class Pending {
+        final ByteBuffer data;
+        final int entries;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(byte[] framed, int entries) {
+            this.data = ByteBuffer.wrap(framed);
+            this.entries = entries;
+        }
+    }
+
+    private static final Pending STOP = new Pending(new byte[0], 0);
+
+    private static final Metrics.Histogram COMMIT_TIME = Metrics.histogram("cert_ledger_commit_seconds",
+            "Time to write and fsync one batch of queued ledger appends");
+    private static final Metrics.Counter COMMITTED = Metrics.counter("cert_ledger_entries_total",
+            "Entries committed to the ledger");
+
+    private final Path file;
+    private final Path snapshot;
+    private final Path xmlExport;
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    private final ScheduledExecutorService compactor;
+    private final long compactIntervalSeconds;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private FileChannel channel;
+    private long endOffset;
+    private volatile long appendedSeq;
+    private volatile long syncedSeq;
+    private volatile long compactedSeq;
+
+    private CertificateLedger(Path file, Path xmlExport, long compactIntervalSeconds) throws IOException {
+        this.file = file;
+        this.snapshot = file.resolveSibling(file.getFileName().toString().replaceFirst("\\.ledger$", "") + ".snapshot");
+        this.xmlExport = xmlExport;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.deleteIfExists(compactionFile());
+
+        boolean fresh = !Files.exists(snapshot) && (!Files.exists(file) || Files.size(file) < HEADER_SIZE);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE) {
+            // A crash while the ledger was being created can leave part of a header and nothing else
+            channel.truncate(0);
+            writeHeader(channel);
+        }
+        this.endOffset = recover();
+
+        if (fresh && xmlExport != null && Files.exists(xmlExport)) {
+            importXml(xmlExport);
+        }
+        this.compactedSeq = appendedSeq;
+
+        Metrics.gauge("cert_ledger_queue_depth", "Appends waiting for the ledger writer", queue::size);
+        Metrics.gauge("cert_ledger_bytes", "Size of the ledger and its snapshot on disk", () -> {
+            try {
+                return Files.size(file) + (Files.exists(snapshot) ? Files.size(snapshot) : 0);
+            } catch (IOException e) {
+                return 0;
+            }
+        });
+        writer = new Thread(this::writeLoop, "ledger-writer");
+        writer.setDaemon(true);
+
+        this.compactIntervalSeconds = compactIntervalSeconds;
+        if (compactIntervalSeconds > 0) {
+            compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ledger-compactor");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            compactor = null;
+        }
+    }
+
+    /**
+     * Opens (or creates) a ledger and starts its writer and, with a positive interval,
+     * its background compaction.
+     */
+    public static CertificateLedger open(Path file, Path xmlExport, long compactIntervalSeconds) throws IOException {
+        CertificateLedger ledger = new CertificateLedger(file, xmlExport, compactIntervalSeconds);
+        ledger.start();
+        return ledger;
+    }
+
+    /**
+     * Started only once the constructor has returned, so neither thread can see a
+     * partly constructed ledger.
+     */
+    private void start() {
+        writer.start();
+        if (compactor != null) {
+            compactor.scheduleWithFixedDelay(this::compactQuietly, compactIntervalSeconds,
+                                             compactIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public static CertificateLedger fromSystemProperties(String dataDir) throws IOException {
+        return open(Path.of(dataDir, "certificates.ledger"),
+                    Path.of(dataDir, "certificates.xml"),
+                    Long.getLong("cert.ledger.compactInterval", 300));
+    }
+
+    public void appendIssue(CertificateRecord record) throws IOException {
+        commit(frame(encodeIssue(record)), 1);
+    }
+
+    /**
+     * Appends a whole batch with one write and one fsync.
+     */
+    public void appendIssues(List<CertificateRecord> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream batch = new ByteArrayOutputStream(records.size() * 160);
+        for (CertificateRecord record : records) {
+            batch.write(frame(encodeIssue(record)));
+        }
+        commit(batch.toByteArray(), records.size());
+    }
+
+    public void appendRevoke(String id) throws IOException {
+        commit(frame(encodeRevoke(id)), 1);
+    }
+
+    /**
+     * Records many revocations as a single entry, so after a crash either all of them
+     * are in the log or none are.
+     */
+    public void appendRevokes(List<String> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(5 + ids.size() * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(REVOKE_BATCH);
+        out.writeInt(ids.size());
+        for (String id : ids) {
+            writeString(out, id);
+        }
+        if (bytes.size() > MAX_ENTRY_SIZE) {
+            throw new IOException("Too many revocations in one batch: " + ids.size());
+        }
+        commit(frame(bytes.toByteArray()), 1);
+    }
+
+    /**
+     * Reads the snapshot and then every committed entry in order.
+     */
+    public void replay(Visitor visitor) throws IOException {
+        long limit;
+        FileChannel reader;
+        // Open the log before reading the snapshot: a compaction replaces the snapshot
+        // before the log, so whichever pair is seen, the log covers what the snapshot lacks.
+        // Entries present in both are harmless, as replaying them again changes nothing.
+        synchronized (writeLock) {
+            limit = endOffset;
+            reader = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        try (reader) {
+            CertificateSnapshot.read(snapshot, visitor);
+            scan(reader, limit, visitor);
+        }
+    }
+
+    /**
+     * Folds the snapshot and the log into a new snapshot, cuts the log back to what was
+     * appended meanwhile and re-exports the XML file. Appends keep flowing while the
+     * snapshot is written; entries that arrive meanwhile are copied over to the new log
+     * before it replaces the old one.
+     */
+    public void compact() throws IOException {
+        long cutoff;
+        long seqAtCutoff;
+        synchronized (writeLock) {
+            cutoff = endOffset;
+            seqAtCutoff = appendedSeq;
+        }
+
+        Map<String, CertificateRecord> live = new LinkedHashMap<>();
+        Visitor fold = new Visitor() {
+            public void onIssue(CertificateRecord record) {
+                live.put(record.id(), record);
+            }
+
+            public void onRevoke(String id) {
+                live.computeIfPresent(id, (k, r) -> r.withStatus(CertificateRecord.REVOKED));
+            }
+        };
+        CertificateSnapshot.read(snapshot, fold);
+        try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ)) {
+            scan(reader, cutoff, fold);
+        }
+        // A crash after this leaves the new snapshot next to the old log, which replays
+        // to the same state
+        CertificateSnapshot.write(snapshot, live.values());
+
+        Path tmp = compactionFile();
+        FileChannel next = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            writeHeader(next);
+        } catch (IOException e) {
+            next.close();
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                long position = next.size();
+                long tail = cutoff;
+                while (tail < endOffset) {
+                    long n = channel.transferTo(tail, endOffset - tail, next);
+                    tail += n;
+                    position += n;
+                }
+                next.force(true);
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                channel.close();
+                channel = next;
+                endOffset = position;
+                syncedSeq = appendedSeq;
+            }
+        }
+        compactedSeq = seqAtCutoff;
+
+        if (xmlExport != null) {
+            exportXml(live, xmlExport);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            if (appendedSeq != compactedSeq) {
+                compact();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the current state in the legacy certificates.xml format.
+     */
+    public void exportXml(Path target) throws IOException {
+        Map<String, CertificateRecord> live = new LinkedHashMap<>();
+        replay(new Visitor() {
+            public void onIssue(CertificateRecord record) {
+                live.put(record.id(), record);
+            }
+
+            public void onRevoke(String id) {
+                live.computeIfPresent(id, (k, r) -> r.withStatus(CertificateRecord.REVOKED));
+            }
+        });
+        exportXml(live, target);
+    }
+
+    private static void exportXml(Map<String, CertificateRecord> records, Path target) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmp), StandardCharsets.UTF_8))) {
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<certificates>\n");
+            for (CertificateRecord r : records.values()) {
+                w.write("  <certificate>\n");
+                w.write("    <id>" + escapeXml(r.id()) + "</id>\n");
+                w.write("    <name>" + escapeXml(r.name()) + "</name>\n");
+                w.write("    <type>" + escapeXml(r.type()) + "</type>\n");
+                w.write("    <course>" + escapeXml(r.course()) + "</course>\n");
+                w.write("    <date>" + escapeXml(r.date()) + "</date>\n");
+                w.write("    <instructor>" + escapeXml(r.instructor()) + "</instructor>\n");
+                w.write("    <hours>" + escapeXml(r.hours()) + "</hours>\n");
+                w.write("    <generated>" + escapeXml(r.generated()) + "</generated>\n");
+                if (r.isRevoked()) {
+                    w.write("    <status>" + CertificateRecord.REVOKED + "</status>\n");
+                }
+                w.write("  </certificate>\n");
+            }
+            w.write("</certificates>");
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Never interrupt a running compaction: an interrupt closes the channel it is using
+        if (compactor != null) {
+            compactor.shutdown();
+        }
+        // Under the queue's lock, so no commit() can slip an entry in behind STOP
+        synchronized (queue) {
+            closed = true;
+            queue.add(STOP);
+        }
+        try {
+            if (compactor != null) {
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        compactQuietly();
+        synchronized (writeLock) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    /**
+     * Queues framed entries for the writer thread and waits until they are on disk.
+     */
+    private void commit(byte[] framed, int entries) throws IOException {
+        Pending pending = new Pending(framed, entries);
+        synchronized (queue) {
+            if (closed) {
+                throw new IOException("Ledger is closed: " + file);
+            }
+            queue.add(pending);
+        }
+        try {
+            pending.done.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch);
+            boolean stop = batch.remove(STOP);
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+            batch.clear();
+            if (stop) {
+                // Fail anything queued after close instead of leaving its writer waiting
+                for (Pending late; (late = queue.poll()) != null; ) {
+                    late.done.completeExceptionally(new IOException("Ledger is closed: " + file));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Appends a drained batch with one gathering write and one fsync. A failed write is
+     * cut back off, so the log never keeps half of a batch whose writers saw an error.
+     */
+    private void write(List<Pending> batch) {
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        int entries = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = batch.get(i).data;
+            entries += batch.get(i).entries;
+        }
+        long started = System.nanoTime();
+        try {
+            synchronized (syncLock) {
+                FileChannel current;
+                synchronized (writeLock) {
+                    current = channel;
+                    long start = endOffset;
+                    try {
+                        current.position(endOffset);
+                        while (buffers[buffers.length - 1].hasRemaining()) {
+                            endOffset += current.write(buffers);
+                        }
+                    } catch (IOException e) {
+                        endOffset = start;
+                        current.truncate(start);
+                        throw e;
+                    }
+                    appendedSeq += entries;
+                }
+                current.force(false);
+                syncedSeq = appendedSeq;
+            }
+            COMMIT_TIME.observeSince(started);
+            COMMITTED.add(entries);
+            for (Pending pending : batch) {
+                pending.done.complete(null);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Pending pending : batch) {
+                pending.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Appends directly, bypassing the writer thread; only used before it starts.
+     */
+    private void append(byte[] framed) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(framed);
+        synchronized (writeLock) {
+            while (buf.hasRemaining()) {
+                endOffset += channel.write(buf, endOffset);
+            }
+            appendedSeq++;
+        }
+    }
+
+    private long recover() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            throw new IOException("Not a certificate ledger: " + file);
+        }
+        int version = header.getInt();
+        if (version == 1) {
+            // Version 2 only adds entry types, so a version 1 log is upgraded in place; the
+            // new number keeps older servers from misreading the entries appended from now on
+            channel.write(ByteBuffer.allocate(4).putInt(0, VERSION), 4);
+            channel.force(true);
+        } else if (version != VERSION) {
+            throw new IOException("Unsupported ledger version " + version + " in " + file);
+        }
+
+        // Only checksums are verified here; the entries are decoded once, by replay()
+        long validEnd = scan(channel, channel.size(), null);
+        if (validEnd < channel.size()) {
+            System.err.println("Ledger " + file + ": discarding " + (channel.size() - validEnd) +
+                               " bytes of incomplete entries");
+            channel.truncate(validEnd);
+            channel.force(true);
+        }
+        // Sequence numbers only tell whether anything was appended since the last
+        // compaction, so they can start from zero on every run
+        appendedSeq = 0;
+        syncedSeq = 0;
+        return validEnd;
+    }
+
+    /**
+     * Visits entries up to {@code limit} and returns the offset just past the last
+     * intact one. A null visitor only checks the entries.
+     */
+    private static long scan(FileChannel ch, long limit, Visitor visitor) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(ch.position(HEADER_SIZE)), 1 << 16));
+        long offset = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[256];
+        while (offset + ENTRY_HEADER_SIZE <= limit) {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length <= 0 || length > MAX_ENTRY_SIZE || offset + ENTRY_HEADER_SIZE + length > limit) {
+                break;
+            }
+            if (payload.length < length) {
+                payload = new byte[Math.max(length, payload.length * 2)];
+            }
+            in.readFully(payload, 0, length);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            if (visitor != null) {
+                decode(payload, length, visitor);
+            }
+            offset += ENTRY_HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    private static void decode(byte[] payload, int length, Visitor visitor) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+        byte op = in.readByte();
+        boolean v1 = op <= REVOKE_BATCH_V1;
+        if (op == ISSUE || op == ISSUE_V1) {
+            visitor.onIssue(new CertificateRecord(readString(in, v1), readString(in, v1), readString(in, v1),
+                                                  readString(in, v1), readString(in, v1), readString(in, v1),
+                                                  readString(in, v1), readString(in, v1), readString(in, v1)));
+        } else if (op == REVOKE || op == REVOKE_V1) {
+            visitor.onRevoke(readString(in, v1));
+        } else if (op == REVOKE_BATCH || op == REVOKE_BATCH_V1) {
+            for (int n = in.readInt(); n > 0; n--) {
+                visitor.onRevoke(readString(in, v1));
+            }
+        } else {
+            throw new IOException("Unknown ledger entry type " + op);
+        }
+    }
+
+    private static byte[] encodeIssue(CertificateRecord r) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ISSUE);
+        for (String field : new String[] {r.id(), r.name(), r.type(), r.course(), r.date(), r.instructor(),
+                                          r.hours(), r.generated(), r.status()}) {
+            writeString(out, field);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeRevoke(String id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(REVOKE);
+        writeString(out, id);
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, boolean v1) throws IOException {
+        if (v1) {
+            return in.readUTF();
+        }
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Corrupt ledger string of " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buf = ByteBuffer.allocate(ENTRY_HEADER_SIZE + payload.length);
+        buf.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        return buf.array();
+    }
+
+    private static void writeHeader(FileChannel ch) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        ch.write(header, 0);
+        ch.position(HEADER_SIZE);
+        ch.force(true);
+    }
+
+    private Path compactionFile() {
+        return file.resolveSibling(file.getFileName() + ".compact");
+    }
+
+    /**
+     * One-time migration of an existing certificates.xml written by the old
+     * read-modify-write logger.
+     */
+    private void importXml(Path xml) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(xml, StandardCharsets.UTF_8)) {
+            Map<String, String> fields = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.equals("<certificate>")) {
+                    fields = new LinkedHashMap<>();
+                } else if (line.equals("</certificate>") && fields != null) {
+                    String status = fields.getOrDefault("status", "");
+                    append(frame(encodeIssue(new CertificateRecord(
+                            fields.getOrDefault("id", ""),
+                            fields.getOrDefault("name", fields.getOrDefault("n", "")),
+                            fields.getOrDefault("type", ""),
+                            fields.getOrDefault("course", ""),
+                            fields.getOrDefault("date", ""),
+                            fields.getOrDefault("instructor", ""),
+                            fields.getOrDefault("hours", ""),
+                            fields.getOrDefault("generated", ""),
+                            status.isEmpty() ? CertificateRecord.ACTIVE : status))));
+                    fields = null;
+                } else if (fields != null && line.startsWith("<")) {
+                    int close = line.indexOf('>');
+                    int end = line.lastIndexOf("</");
+                    if (close > 1 && end > close) {
+                        fields.put(line.substring(1, close), unescapeXml(line.substring(close + 1, end)));
+                    }
+                }
+            }
+        }
+        channel.force(true);
+        syncedSeq = appendedSeq;
+    }
+
+    private static String escapeXml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;")
+                .replace(">", "&gt;").replace("\"", "&quot;")
+                .replace("'", "&apos;");
+    }
+
+    private static String unescapeXml(String s) {
+        return s.replace("&lt;", "<").replace("&gt;", ">")
+                .replace("&quot;", "\"").replace("&apos;", "'")
+                .replace("&amp;", "&");
+    }
+}
@@ -0,0 +1,31 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One issued certificate as stored in the ledger and served by the HTTP endpoints.
+ */
+public record CertificateRecord(String id, String name, String type, String course,
+                                String date, String instructor, String hours,
+                                String generated, String status) {
+
+    public static final String ACTIVE = "Active";
+    public static final String REVOKED = "Revoked";
+
+    /**
+     * Longest field, in UTF-8 bytes, that the snapshot and the registry table can hold.
+     */
+    public static final int MAX_FIELD_BYTES = 0xffff;
+
+    public static boolean fits(String value) {
+        // A char never takes more than three UTF-8 bytes, so short values need no encoding
+        return value.length() * 3L <= MAX_FIELD_BYTES
+                || value.getBytes(StandardCharsets.UTF_8).length <= MAX_FIELD_BYTES;
+    }
+
+    public boolean isRevoked() {
+        return REVOKED.equals(status);
+    }
+
+    public CertificateRecord withStatus(String newStatus) {
+        return new CertificateRecord(id, name, type, course, date, instructor, hours, generated, newStatus);
+    }
+}
@@ -0,0 +1,349 @@
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory view of every issued certificate, loaded once from the ledger at startup.
+ * Records are kept dictionary-encoded in a CertificateTable, which finds them by id
+ * and pages through them in id order. Mutations are written to the ledger first and only then applied here,
+ * so the registry never shows a state that is not on disk.
+ *
+ * Status changes hold a lock striped by id across the check, the ledger write and the
+ * update, so two revocations of one certificate cannot both succeed while changes to
+ * different certificates proceed in parallel and share the ledger's fsync. A batch
+ * revocation takes every stripe it needs in index order and commits as one ledger entry.
+ */
+public class CertificateRegistry {
+
+    public enum RevokeResult { REVOKED, ALREADY_REVOKED, NOT_FOUND }
+
+    /**
+     * Outcome of a batch revocation.
+     */
+    public static final class BatchRevokeResult {
+        public final List<String> revoked;
+        public final int alreadyRevoked;
+        public final List<String> notFound;
+
+        BatchRevokeResult(List<String> revoked, int alreadyRevoked, List<String> notFound) {
+            this.revoked = revoked;
+            this.alreadyRevoked = alreadyRevoked;
+            this.notFound = notFound;
+        }
+    }
+
+    /**
+     * Told about every change after it is on disk and visible here; not called while
+     * the registry is loading.
+     */
+    public interface Listener {
+        void issued(CertificateRecord record);
+
+        void revoked(CertificateRecord record);
+    }
+
+    // Records copied out per table scan, and rows a scan may look at, so a lazy walk
+    // holds the table's read lock only briefly at a time
+    private static final int PAGE = 64;
+    private static final int SCAN_BUDGET = 16_384;
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final CertificateLedger ledger;
+    private final CertificateTable table = new CertificateTable();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    private CertificateRegistry(CertificateLedger ledger) {
+        this.ledger = ledger;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public static CertificateRegistry load(CertificateLedger ledger) throws IOException {
+        CertificateRegistry registry = new CertificateRegistry(ledger);
+        ledger.replay(new CertificateLedger.Visitor() {
+            public void onIssue(CertificateRecord record) {
+                registry.table.put(record);
+            }
+
+            public void onRevoke(String id) {
+                registry.table.setStatus(id, CertificateRecord.REVOKED);
+            }
+        });
+        return registry;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void issue(CertificateRecord record) throws IOException {
+        ledger.appendIssue(record);
+        table.put(record);
+        for (Listener listener : listeners) {
+            listener.issued(record);
+        }
+    }
+
+    public void issueAll(List<CertificateRecord> records) throws IOException {
+        ledger.appendIssues(records);
+        for (CertificateRecord record : records) {
+            table.put(record);
+        }
+        for (Listener listener : listeners) {
+            for (CertificateRecord record : records) {
+                listener.issued(record);
+            }
+        }
+    }
+
+    public RevokeResult revoke(String id) throws IOException {
+        CertificateRecord revoked;
+        ReentrantLock lock = locks[stripe(id)];
+        lock.lock();
+        try {
+            CertificateRecord record = table.get(id);
+            if (record == null) {
+                return RevokeResult.NOT_FOUND;
+            }
+            if (record.isRevoked()) {
+                return RevokeResult.ALREADY_REVOKED;
+            }
+            ledger.appendRevoke(id);
+            revoked = record.withStatus(CertificateRecord.REVOKED);
+            table.setStatus(id, CertificateRecord.REVOKED);
+        } finally {
+            lock.unlock();
+        }
+        for (Listener listener : listeners) {
+            listener.revoked(revoked);
+        }
+        return RevokeResult.REVOKED;
+    }
+
+    /**
+     * Revokes every listed certificate that is still active, all or nothing: the
+     * revocations reach the ledger as one entry before any of them is applied here.
+     */
+    public BatchRevokeResult revokeAll(Collection<String> ids) throws IOException {
+        Set<String> unique = new LinkedHashSet<>(ids);
+        BitSet stripes = new BitSet(LOCK_STRIPES);
+        for (String id : unique) {
+            stripes.set(stripe(id));
+        }
+
+        List<CertificateRecord> revoked = new ArrayList<>();
+        List<String> notFound = new ArrayList<>();
+        int alreadyRevoked = 0;
+        // Ascending stripe order, so two batches can never wait on each other
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+            locks[i].lock();
+        }
+        try {
+            List<CertificateRecord> active = new ArrayList<>();
+            List<String> activeIds = new ArrayList<>();
+            for (String id : unique) {
+                CertificateRecord record = table.get(id);
+                if (record == null) {
+                    notFound.add(id);
+                } else if (record.isRevoked()) {
+                    alreadyRevoked++;
+                } else {
+                    active.add(record);
+                    activeIds.add(id);
+                }
+            }
+            ledger.appendRevokes(activeIds);
+            for (CertificateRecord record : active) {
+                table.setStatus(record.id(), CertificateRecord.REVOKED);
+                revoked.add(record.withStatus(CertificateRecord.REVOKED));
+            }
+        } finally {
+            for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+                locks[i].unlock();
+            }
+        }
+        for (Listener listener : listeners) {
+            for (CertificateRecord record : revoked) {
+                listener.revoked(record);
+            }
+        }
+        List<String> revokedIds = new ArrayList<>(revoked.size());
+        for (CertificateRecord record : revoked) {
+            revokedIds.add(record.id());
+        }
+        return new BatchRevokeResult(revokedIds, alreadyRevoked, notFound);
+    }
+
+    public CertificateRecord get(String id) {
+        return table.get(id);
+    }
+
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * The table behind the registry, for indexes that refer to certificates by row.
+     */
+    CertificateTable table() {
+        return table;
+    }
+
+    /**
+     * Every record, read lazily in id order.
+     */
+    public Collection<CertificateRecord> all() {
+        return new AbstractCollection<CertificateRecord>() {
+            public Iterator<CertificateRecord> iterator() {
+                return find(new Filter(), null, false);
+            }
+
+            public int size() {
+                return table.size();
+            }
+        };
+    }
+
+    /**
+     * Ids of the certificates with the given status, in id order.
+     */
+    public List<String> idsByStatus(String status) {
+        List<String> ids = new ArrayList<>();
+        find(new Filter().status(status), null, false).forEachRemaining(r -> ids.add(r.id()));
+        return ids;
+    }
+
+    public int countByStatus(String status) {
+        return table.count(CertificateTable.STATUS, codes(CertificateTable.STATUS, status));
+    }
+
+    /**
+     * Matching records in id order, starting after the given cursor. Status, type and
+     * course are compared by dictionary code, so rows that fail on them are skipped
+     * without being read; the table is walked lazily a page at a time, so callers that
+     * stop early never touch the rest.
+     */
+    public Iterator<CertificateRecord> find(Filter filter, String after, boolean descending) {
+        BitSet[] accept = new BitSet[CertificateTable.STATUS + 1];
+        accept[CertificateTable.STATUS] = filter.status == null ? null : codes(CertificateTable.STATUS, filter.status);
+        accept[CertificateTable.TYPE] = filter.type == null ? null : codes(CertificateTable.TYPE, filter.type);
+        accept[CertificateTable.COURSE] = filter.course == null ? null : codes(CertificateTable.COURSE, filter.course);
+
+        return new Iterator<CertificateRecord>() {
+            private final List<CertificateRecord> page = new ArrayList<>(PAGE);
+            private String cursor = after == null || after.isEmpty() ? null : after;
+            private boolean done;
+            private int next;
+
+            private boolean fill() {
+                while (next == page.size() && !done) {
+                    page.clear();
+                    next = 0;
+                    cursor = table.scan(cursor, descending, accept, filter::matches, PAGE, SCAN_BUDGET, page);
+                    done = cursor == null;
+                }
+                return next < page.size();
+            }
+
+            public boolean hasNext() {
+                return fill();
+            }
+
+            public CertificateRecord next() {
+                if (!fill()) {
+                    throw new NoSuchElementException();
+                }
+                return page.get(next++);
+            }
+        };
+    }
+
+    private BitSet codes(int field, String value) {
+        String wanted = key(value);
+        return table.codes(field, v -> key(v).equals(wanted));
+    }
+
+    private static int stripe(String id) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
+    private static String key(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Record filter shared by the listing, bulk and export endpoints. Unset fields
+     * match everything; dates compare as yyyy-MM-dd strings, inclusive.
+     */
+    public static class Filter {
+        String status;
+        String type;
+        String course;
+        String fromDate;
+        String toDate;
+        String namePrefix;
+
+        public Filter status(String status) {
+            this.status = blankToNull(status);
+            return this;
+        }
+
+        public Filter type(String type) {
+            this.type = blankToNull(type);
+            return this;
+        }
+
+        public Filter course(String course) {
+            this.course = blankToNull(course);
+            return this;
+        }
+
+        public Filter from(String fromDate) {
+            this.fromDate = blankToNull(fromDate);
+            return this;
+        }
+
+        public Filter to(String toDate) {
+            this.toDate = blankToNull(toDate);
+            return this;
+        }
+
+        public Filter namePrefix(String namePrefix) {
+            String prefix = blankToNull(namePrefix);
+            this.namePrefix = prefix == null ? null : key(prefix);
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return status == null && type == null && course == null &&
+                   fromDate == null && toDate == null && namePrefix == null;
+        }
+
+        public boolean matches(CertificateRecord r) {
+            return (status == null || key(status).equals(key(r.status())))
+                && (type == null || key(type).equals(key(r.type())))
+                && (course == null || key(course).equals(key(r.course())))
+                && (fromDate == null || r.date().compareTo(fromDate) >= 0)
+                && (toDate == null || r.date().compareTo(toDate) <= 0)
+                && (namePrefix == null || key(r.name()).startsWith(namePrefix));
+        }
+
+        private static String blankToNull(String s) {
+            return s == null || s.trim().isEmpty() ? null : s.trim();
+        }
+    }
+}
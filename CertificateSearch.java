@@ -0,0 +1,618 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Answers /search: finds certificates whose name, course or instructor contains every
+ * word of a query, each word matching a whole word or the start of one, ignoring case
+ * and accents ("jose gar" finds "José García").
+ *
+ * Names are indexed here, word by word, as rows of the registry's CertificateTable: an
+ * inverted index (rows per word, in row order) to find candidates, and a forward index
+ * (words per row) to check and score them. Course and instructor are few distinct values
+ * already numbered by the table, so a query is matched against those values once and
+ * rows are compared by code. Revocations need no index change, as status is read from
+ * the table; new certificates are indexed as the registry reports them.
+ *
+ * A query is driven by its most selective word. Every row that word matches is checked
+ * against the other words and scored: a whole-word match counts more than a prefix, and
+ * a name more than a course, a course more than an instructor. Ties go to the newest
+ * certificate. At most cert.search.maxCandidates rows (default: 50000, newest first)
+ * are scored, which keeps even single-letter queries on large registries in the low
+ * milliseconds at the cost of ranking only the newest matches.
+ */
+public final class CertificateSearch implements CertificateRegistry.Listener {
+
+    private static final int NAME_EXACT = 6;
+    private static final int NAME_PREFIX = 3;
+    private static final int COURSE_EXACT = 4;
+    private static final int COURSE_PREFIX = 2;
+    private static final int INSTRUCTOR_EXACT = 2;
+    private static final int INSTRUCTOR_PREFIX = 1;
+
+    private static final int MAX_WORDS = 8;
+    // Rows looked at for course and instructor matches, beyond the rows scored
+    private static final int SCAN_BUDGET = 4_000_000;
+    private static final int BATCH = 256;
+
+    /**
+     * A certificate found by a search, with its score.
+     */
+    public static final class Hit {
+        public final CertificateRecord record;
+        public final int score;
+
+        Hit(CertificateRecord record, int score) {
+            this.record = record;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Hits in rank order; complete is false when matches beyond the candidate limit went
+     * unscored.
+     */
+    public static final class Result {
+        public final List<Hit> hits;
+        public final boolean complete;
+
+        Result(List<Hit> hits, boolean complete) {
+            this.hits = hits;
+            this.complete = complete;
+        }
+    }
+
+    private final CertificateTable table;
+    private final int maxCandidates;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Words by number, and the rows whose name contains each
+    private final Map<String, Integer> wordIds = new HashMap<>();
+    private String[] words = new String[1024];
+    private int[][] postings = new int[1024][];
+    private int[] postingSizes = new int[1024];
+    private int wordCount;
+
+    // Word numbers in alphabetical order, for prefix lookups; words added since the last
+    // merge are kept apart (and searched linearly) until there are enough to merge
+    private int[] sorted = new int[0];
+    private int sortedCount;
+
+    // Word numbers of each indexed row's name: rowWords[rowStart[r]] up to rowStart[r + 1]
+    private int[] rowWords = new int[4096];
+    private int[] rowStart = new int[1025];
+    private int rows;
+
+    // Normalized words of course and instructor values, shared by every query
+    private final Map<String, String[]> valueWords = new ConcurrentHashMap<>();
+
+    public CertificateSearch(CertificateRegistry registry, int maxCandidates) {
+        this.table = registry.table();
+        this.maxCandidates = Math.max(1, maxCandidates);
+        catchUp();
+        registry.addListener(this);
+        Metrics.gauge("cert_search_words", "Distinct name words in the search index", this::wordCount);
+    }
+
+    public static CertificateSearch fromSystemProperties(CertificateRegistry registry) {
+        return new CertificateSearch(registry, Integer.getInteger("cert.search.maxCandidates", 50_000));
+    }
+
+    @Override
+    public void issued(CertificateRecord record) {
+        catchUp();
+    }
+
+    @Override
+    public void revoked(CertificateRecord record) {
+        // Status is read from the table when results are built
+    }
+
+    /**
+     * Up to {@code limit} certificates matching every word of the query, best first,
+     * optionally only those with the given status.
+     */
+    public Result search(String query, String status, int limit) {
+        List<String> queryWords = words(query);
+        if (queryWords.isEmpty() || limit <= 0) {
+            return new Result(List.of(), true);
+        }
+        if (queryWords.size() > MAX_WORDS) {
+            queryWords = queryWords.subList(0, MAX_WORDS);
+        }
+        BitSet statuses = status == null ? null : table.codes(CertificateTable.STATUS, status::equalsIgnoreCase);
+
+        lock.readLock().lock();
+        try {
+            Query q = new Query(queryWords, statuses, limit);
+            q.run();
+            return q.result();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int wordCount() {
+        lock.readLock().lock();
+        try {
+            return wordCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * One search: the per-word matches, the candidate rows checked so far and the best
+     * scores kept.
+     */
+    private final class Query {
+        final String[] text;
+        final int[] exactWord;
+        final int[][] prefixWords;
+        final BitSet[] courseExact;
+        final BitSet[] coursePrefix;
+        final BitSet[] instructorExact;
+        final BitSet[] instructorPrefix;
+        final BitSet statuses;
+        final int limit;
+        // score << 32 | row, smallest first, so the weakest kept hit is at the head
+        final PriorityQueue<Long> best = new PriorityQueue<>();
+
+        final int[] batch = new int[BATCH];
+        final int[] courses = new int[BATCH];
+        final int[] instructors = new int[BATCH];
+        final int[] statusCodes = new int[BATCH];
+        int batchSize;
+        int scored;
+        boolean complete = true;
+        // The best score rows still to come can reach, and the last row queued: once the
+        // weakest kept hit beats both, no remaining (older) row can displace it
+        int reachable;
+        int lastRow;
+        boolean settled;
+
+        Query(List<String> queryWords, BitSet statuses, int limit) {
+            int n = queryWords.size();
+            this.text = queryWords.toArray(new String[0]);
+            this.exactWord = new int[n];
+            this.prefixWords = new int[n][];
+            this.courseExact = new BitSet[n];
+            this.coursePrefix = new BitSet[n];
+            this.instructorExact = new BitSet[n];
+            this.instructorPrefix = new BitSet[n];
+            this.statuses = statuses;
+            this.limit = limit;
+            for (int i = 0; i < n; i++) {
+                String word = text[i];
+                exactWord[i] = wordIds.getOrDefault(word, -1);
+                prefixWords[i] = wordsStartingWith(word);
+                courseExact[i] = table.codes(CertificateTable.COURSE, valueHas(word, true));
+                coursePrefix[i] = table.codes(CertificateTable.COURSE, valueHas(word, false));
+                instructorExact[i] = table.codes(CertificateTable.INSTRUCTOR, valueHas(word, true));
+                instructorPrefix[i] = table.codes(CertificateTable.INSTRUCTOR, valueHas(word, false));
+            }
+        }
+
+        void run() {
+            // Drive the search with the word that matches the fewest rows
+            int driver = -1;
+            long fewest = Long.MAX_VALUE;
+            for (int i = 0; i < text.length; i++) {
+                long estimate = table.count(CertificateTable.COURSE, coursePrefix[i])
+                                + table.count(CertificateTable.INSTRUCTOR, instructorPrefix[i]);
+                for (int word : prefixWords[i]) {
+                    estimate += postingSizes[word];
+                }
+                if (estimate < fewest) {
+                    fewest = estimate;
+                    driver = i;
+                }
+            }
+            if (fewest == 0) {
+                return;
+            }
+            for (int i = 0; i < text.length; i++) {
+                reachable += reachable(i, true);
+            }
+
+            // Rows whose name has the word, newest first: merge the postings of every
+            // word it is a prefix of, walking each list from its end
+            int[] words = prefixWords[driver];
+            PriorityQueue<long[]> cursors = new PriorityQueue<>(Math.max(1, words.length),
+                    (a, b) -> Long.compare(b[0], a[0]));
+            for (int word : words) {
+                int size = postingSizes[word];
+                cursors.add(new long[] {postings[word][size - 1], word, size - 1});
+            }
+            int previous = -1;
+            while (!cursors.isEmpty()) {
+                long[] cursor = cursors.poll();
+                int row = (int) cursor[0];
+                if (row != previous && !add(row)) {
+                    if (settled) {
+                        break;
+                    }
+                    return;
+                }
+                previous = row;
+                int word = (int) cursor[1];
+                int at = (int) cursor[2] - 1;
+                if (at >= 0) {
+                    cursor[0] = postings[word][at];
+                    cursor[2] = at;
+                    cursors.add(cursor);
+                }
+            }
+
+            // Rows matching the word by course or instructor, newest first; rows whose
+            // name also matches were scored above
+            BitSet[] accept = new BitSet[CertificateTable.INSTRUCTOR + 1];
+            accept[CertificateTable.COURSE] = coursePrefix[driver].isEmpty() ? null : coursePrefix[driver];
+            accept[CertificateTable.INSTRUCTOR] = instructorPrefix[driver].isEmpty() ? null : instructorPrefix[driver];
+            flush();
+            if (accept[CertificateTable.COURSE] == null && accept[CertificateTable.INSTRUCTOR] == null) {
+                return;
+            }
+            // These rows may be newer than those kept so far, but cannot match the word by name
+            reachable = 0;
+            for (int i = 0; i < text.length; i++) {
+                reachable += reachable(i, i != driver);
+            }
+            lastRow = rows;
+            settled = false;
+            if (settle()) {
+                return;
+            }
+            int[] found = new int[BATCH];
+            int[] lowest = new int[1];
+            int before = rows;
+            int budget = SCAN_BUDGET;
+            while (before > 0 && budget > 0) {
+                int n = table.rowsWithAny(accept, before, Math.min(budget, 1 << 16), found, lowest);
+                budget -= before - lowest[0];
+                before = lowest[0];
+                for (int i = 0; i < n; i++) {
+                    if (!nameHas(found[i], driver) && !add(found[i])) {
+                        return;
+                    }
+                }
+            }
+            if (before > 0) {
+                complete = false;
+            }
+            flush();
+        }
+
+        /**
+         * The best score query word i can add to a row, given what it matches at all.
+         */
+        int reachable(int i, boolean byName) {
+            int match = 0;
+            if (byName) {
+                match = exactWord[i] >= 0 ? NAME_EXACT : prefixWords[i].length > 0 ? NAME_PREFIX : 0;
+            }
+            if (!courseExact[i].isEmpty()) {
+                match = Math.max(match, COURSE_EXACT);
+            } else if (!coursePrefix[i].isEmpty()) {
+                match = Math.max(match, COURSE_PREFIX);
+            }
+            if (!instructorExact[i].isEmpty()) {
+                match = Math.max(match, INSTRUCTOR_EXACT);
+            } else if (!instructorPrefix[i].isEmpty()) {
+                match = Math.max(match, INSTRUCTOR_PREFIX);
+            }
+            return match;
+        }
+
+        /**
+         * Whether every hit kept outranks anything the rows below lastRow could score.
+         */
+        boolean settle() {
+            settled = best.size() == limit && best.peek() >= ((long) reachable << 32 | lastRow);
+            return settled;
+        }
+
+        /**
+         * Queues a candidate row for scoring; false once the result is settled or the
+         * candidate limit is reached.
+         */
+        boolean add(int row) {
+            if (settled) {
+                return false;
+            }
+            if (scored == maxCandidates) {
+                flush();
+                complete = false;
+                return false;
+            }
+            scored++;
+            lastRow = row;
+            batch[batchSize++] = row;
+            if (batchSize == BATCH) {
+                flush();
+            }
+            return true;
+        }
+
+        void flush() {
+            if (batchSize == 0) {
+                return;
+            }
+            table.fieldCodes(batch, batchSize, CertificateTable.COURSE, courses);
+            table.fieldCodes(batch, batchSize, CertificateTable.INSTRUCTOR, instructors);
+            if (statuses != null) {
+                table.fieldCodes(batch, batchSize, CertificateTable.STATUS, statusCodes);
+            }
+            for (int i = 0; i < batchSize; i++) {
+                if (statuses != null && !statuses.get(statusCodes[i])) {
+                    continue;
+                }
+                int score = score(batch[i], courses[i], instructors[i]);
+                if (score > 0) {
+                    keep((long) score << 32 | batch[i]);
+                }
+            }
+            batchSize = 0;
+            settle();
+        }
+
+        void keep(long hit) {
+            if (best.size() < limit) {
+                best.add(hit);
+            } else if (hit > best.peek()) {
+                best.poll();
+                best.add(hit);
+            }
+        }
+
+        /**
+         * Sum over the query words of the best match each finds in the row, or 0 if any
+         * word finds none.
+         */
+        int score(int row, int course, int instructor) {
+            int total = 0;
+            for (int i = 0; i < text.length; i++) {
+                int match = 0;
+                for (int at = rowStart[row]; at < rowStart[row + 1] && match < NAME_EXACT; at++) {
+                    int word = rowWords[at];
+                    if (word == exactWord[i]) {
+                        match = NAME_EXACT;
+                    } else if (words[word].startsWith(text[i])) {
+                        match = NAME_PREFIX;
+                    }
+                }
+                if (match < COURSE_EXACT) {
+                    if (courseExact[i].get(course)) {
+                        match = COURSE_EXACT;
+                    } else if (match < COURSE_PREFIX && coursePrefix[i].get(course)) {
+                        match = COURSE_PREFIX;
+                    }
+                }
+                if (match < INSTRUCTOR_EXACT) {
+                    if (instructorExact[i].get(instructor)) {
+                        match = INSTRUCTOR_EXACT;
+                    } else if (match < INSTRUCTOR_PREFIX && instructorPrefix[i].get(instructor)) {
+                        match = INSTRUCTOR_PREFIX;
+                    }
+                }
+                if (match == 0) {
+                    return 0;
+                }
+                total += match;
+            }
+            return total;
+        }
+
+        boolean nameHas(int row, int i) {
+            for (int at = rowStart[row]; at < rowStart[row + 1]; at++) {
+                if (words[rowWords[at]].startsWith(text[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Result result() {
+            Long[] kept = best.toArray(new Long[0]);
+            Arrays.sort(kept, (a, b) -> Long.compare(b, a));
+            List<Hit> hits = new ArrayList<>(kept.length);
+            for (long hit : kept) {
+                hits.add(new Hit(table.record((int) hit), (int) (hit >>> 32)));
+            }
+            return new Result(hits, complete);
+        }
+    }
+
+    /**
+     * Indexes the rows the table gained since the last call.
+     */
+    private void catchUp() {
+        lock.writeLock().lock();
+        try {
+            int target = table.size();
+            if (rows == target) {
+                return;
+            }
+            for (; rows < target; rows++) {
+                index(rows, words(table.name(rows)));
+            }
+            if (wordCount - sortedCount > Math.max(256, sortedCount / 16)) {
+                mergeSorted();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void index(int row, List<String> nameWords) {
+        if (row + 1 >= rowStart.length) {
+            rowStart = Arrays.copyOf(rowStart, rowStart.length + (rowStart.length >> 1));
+        }
+        int at = rowStart[row];
+        if (at + nameWords.size() > rowWords.length) {
+            rowWords = Arrays.copyOf(rowWords, Math.max(at + nameWords.size(), rowWords.length + (rowWords.length >> 1)));
+        }
+        for (String word : nameWords) {
+            int id = wordId(word);
+            rowWords[at++] = id;
+            int size = postingSizes[id];
+            if (size == postings[id].length) {
+                postings[id] = Arrays.copyOf(postings[id], size * 2);
+            }
+            postings[id][size] = row;
+            postingSizes[id] = size + 1;
+        }
+        rowStart[row + 1] = at;
+    }
+
+    private int wordId(String word) {
+        Integer id = wordIds.get(word);
+        if (id != null) {
+            return id;
+        }
+        if (wordCount == words.length) {
+            int capacity = words.length + (words.length >> 1);
+            words = Arrays.copyOf(words, capacity);
+            postings = Arrays.copyOf(postings, capacity);
+            postingSizes = Arrays.copyOf(postingSizes, capacity);
+        }
+        words[wordCount] = word;
+        postings[wordCount] = new int[2];
+        wordIds.put(word, wordCount);
+        return wordCount++;
+    }
+
+    /**
+     * Merges the words added since the last merge into the alphabetical order.
+     */
+    private void mergeSorted() {
+        Integer[] fresh = new Integer[wordCount - sortedCount];
+        for (int i = 0; i < fresh.length; i++) {
+            fresh[i] = sortedCount + i;
+        }
+        Arrays.sort(fresh, (a, b) -> words[a].compareTo(words[b]));
+        int[] merged = new int[wordCount];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < merged.length; k++) {
+            if (j == fresh.length || i < sorted.length && words[sorted[i]].compareTo(words[fresh[j]]) <= 0) {
+                merged[k] = sorted[i++];
+            } else {
+                merged[k] = fresh[j++];
+            }
+        }
+        sorted = merged;
+        sortedCount = wordCount;
+    }
+
+    /**
+     * Numbers of the indexed words that start with the given word, itself included.
+     */
+    private int[] wordsStartingWith(String prefix) {
+        int low = 0;
+        int high = sortedCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (words[sorted[mid]].compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int end = low;
+        while (end < sortedCount && words[sorted[end]].startsWith(prefix)) {
+            end++;
+        }
+        int[] matches = Arrays.copyOfRange(sorted, low, end);
+        int n = matches.length;
+        for (int word = sortedCount; word < wordCount; word++) {
+            if (words[word].startsWith(prefix)) {
+                if (n == matches.length) {
+                    matches = Arrays.copyOf(matches, n * 2 + 4);
+                }
+                matches[n++] = word;
+            }
+        }
+        return n == matches.length ? matches : Arrays.copyOf(matches, n);
+    }
+
+    /**
+     * Accepts course or instructor values with a word equal to (or, unless exact,
+     * starting with) the given one.
+     */
+    private Predicate<String> valueHas(String word, boolean exact) {
+        return value -> {
+            for (String w : valueWords.computeIfAbsent(value, v -> words(v).toArray(new String[0]))) {
+                if (exact ? w.equals(word) : w.startsWith(word)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Splits text into distinct lower-case words without accents. Apostrophes join
+     * ("O'Brien" is "obrien"); any other character that is not a letter or digit splits.
+     */
+    static List<String> words(String text) {
+        Set<String> found = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder();
+        String plain = text;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                plain = fold(text);
+                break;
+            }
+        }
+        for (int i = 0; i <= plain.length(); i++) {
+            char c = i < plain.length() ? plain.charAt(i) : ' ';
+            if (c == '\'' || c == '’') {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                found.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * Removes accents, and spells out the letters that decomposition leaves alone.
+     */
+    private static String fold(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        StringBuilder folded = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            switch (c) {
+                case 'ß': folded.append("ss"); break;
+                case 'æ': case 'Æ': folded.append("ae"); break;
+                case 'œ': case 'Œ': folded.append("oe"); break;
+                case 'ø': case 'Ø': folded.append('o'); break;
+                case 'ł': case 'Ł': folded.append('l'); break;
+                case 'đ': case 'Đ': folded.append('d'); break;
+                case 'ı': folded.append('i'); break;
+                default: folded.append(c);
+            }
+        }
+        return folded.toString().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,355 @@
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfSignatureAppearance;
+import com.itextpdf.text.pdf.PdfStamper;
+import com.itextpdf.text.pdf.security.ExternalSignatureContainer;
+import com.itextpdf.text.pdf.security.MakeSignature;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.SignerInformationStore;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optional last stage of rendering: adds a detached CMS signature (adbe.pkcs7.detached)
+ * to each PDF as an incremental update, with an RFC 3161 timestamp on the signature when
+ * a timestamp authority is configured.
+ *
+ * The keystore is read once, when the signer is created; the private key and encoded
+ * certificate chain then serve every signature. Signing runs on its own pool of worker
+ * threads, each of which keeps a CMS generator bound to the key, so the number of
+ * concurrent private-key operations is bounded independently of the render threads.
+ * Timestamp requests from all workers go through a single queue and are sent to the
+ * authority together, as many as have accumulated while the previous request was out.
+ *
+ * The signature covers the rendered bytes, so a certificate rendered again (in lazy mode,
+ * after its PDF was evicted) carries a new signature and timestamp.
+ *
+ * Configured with cert.sign.keystore (PKCS12 or JKS; signing is off when unset),
+ * cert.sign.password (or the CERT_SIGN_PASSWORD environment variable), cert.sign.alias
+ * (default: the first key entry), cert.sign.threads (default: cores), cert.sign.tsa
+ * (none, local or a TimestampAuthority class; default: none), cert.sign.tsaBatch
+ * (default: 256) and cert.sign.reason.
+ */
+public class CertificateSigner {
+
+    // Parts of the sign stage spent waiting, for a signer thread and for a timestamp
+    private static final Metrics.Histogram QUEUE_WAIT = Metrics.histogram("cert_sign_wait_seconds",
+            "Time a PDF being signed spends waiting, by what it waits for", "for", "worker");
+    private static final Metrics.Histogram TIMESTAMP_WAIT = Metrics.histogram("cert_sign_wait_seconds",
+            "Time a PDF being signed spends waiting, by what it waits for", "for", "timestamp");
+    private static final Metrics.Histogram TSA_TIME = Metrics.histogram("cert_tsa_request_seconds",
+            "Time for one batched request to the timestamp authority");
+    private static final Metrics.Counter TSA_TOKENS = Metrics.counter("cert_tsa_tokens_total",
+            "Timestamp tokens received from the timestamp authority");
+    private static final Metrics.Counter TSA_REQUESTS = Metrics.counter("cert_tsa_requests_total",
+            "Batched requests sent to the timestamp authority");
+
+    /**
+     * A signature imprint waiting for the timestamp thread.
+     */
+    private static final class Pending {
+        final byte[] imprint;
+        final CompletableFuture<byte[]> token = new CompletableFuture<>();
+
+        Pending(byte[] imprint) {
+            this.imprint = imprint;
+        }
+    }
+
+    private final PrivateKey key;
+    private final X509Certificate certificate;
+    private final String algorithm;
+    private final String reason;
+    private final int estimatedSize;
+    private final Cms cms;
+    private final ThreadPoolExecutor workers;
+
+    private final TimestampAuthority authority;
+    private final LinkedBlockingQueue<Pending> timestampQueue = new LinkedBlockingQueue<>();
+    private final int timestampBatch;
+    private final Thread timestamper;
+    // Set, under the queue's lock, once the timestamp thread has stopped taking requests
+    private boolean timestampsClosed;
+
+    public CertificateSigner(PrivateKey key, Certificate[] chain, int threads, TimestampAuthority authority,
+                             int timestampBatch, String reason) throws GeneralSecurityException {
+        this.key = key;
+        this.certificate = (X509Certificate) chain[0];
+        this.algorithm = signatureAlgorithm(key);
+        this.reason = reason;
+        this.cms = new Cms(chain);
+        int chainBytes = 0;
+        for (Certificate c : chain) {
+            chainBytes += c.getEncoded().length;
+        }
+        // The reserved /Contents is written as hex whatever the signature's size, so keep
+        // it close: room for a 4096-bit signature with its attributes, plus a timestamp
+        // token carrying a short certificate chain of its own
+        this.estimatedSize = chainBytes + 1024 + (authority != null ? 4096 : 0);
+
+        AtomicInteger counter = new AtomicInteger();
+        int size = Math.max(1, threads);
+        this.workers = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "cert-sign-" + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        Metrics.gauge("cert_sign_queue_depth", "PDFs waiting for a signer thread", () -> workers.getQueue().size());
+
+        this.authority = authority;
+        this.timestampBatch = Math.max(1, timestampBatch);
+        if (authority != null) {
+            this.timestamper = new Thread(this::timestampLoop, "cert-timestamp");
+            this.timestamper.setDaemon(true);
+            this.timestamper.start();
+            Metrics.gauge("cert_tsa_queue_depth", "Signatures waiting for a timestamp", timestampQueue::size);
+        } else {
+            this.timestamper = null;
+        }
+    }
+
+    /**
+     * Returns null, so that PDFs are left unsigned, unless cert.sign.keystore is set.
+     */
+    public static CertificateSigner fromSystemProperties() throws Exception {
+        String keystore = System.getProperty("cert.sign.keystore");
+        if (keystore == null || keystore.isEmpty()) {
+            return null;
+        }
+        String secret = System.getProperty("cert.sign.password", System.getenv("CERT_SIGN_PASSWORD"));
+        char[] password = secret != null ? secret.toCharArray() : new char[0];
+        KeyStore store = KeyStore.getInstance(new File(keystore), password);
+
+        String alias = System.getProperty("cert.sign.alias");
+        if (alias == null) {
+            for (String candidate : Collections.list(store.aliases())) {
+                if (store.isKeyEntry(candidate)) {
+                    alias = candidate;
+                    break;
+                }
+            }
+        }
+        if (alias == null || !store.isKeyEntry(alias)) {
+            throw new GeneralSecurityException("No signing key " + (alias != null ? "'" + alias + "' " : "")
+                                               + "in " + keystore);
+        }
+        PrivateKey key = (PrivateKey) store.getKey(alias, password);
+        Certificate[] chain = store.getCertificateChain(alias);
+
+        String tsa = System.getProperty("cert.sign.tsa", "none");
+        return new CertificateSigner(key, chain,
+                Integer.getInteger("cert.sign.threads", Runtime.getRuntime().availableProcessors()),
+                "none".equalsIgnoreCase(tsa) ? null : TimestampAuthority.forName(tsa),
+                Integer.getInteger("cert.sign.tsaBatch", 256),
+                System.getProperty("cert.sign.reason", "Certificate issued"));
+    }
+
+    /**
+     * Signs a PDF on one of the signer threads and returns the signed file.
+     */
+    public byte[] sign(byte[] pdf) throws Exception {
+        long queued = System.nanoTime();
+        Future<byte[]> signed = workers.submit(() -> {
+            QUEUE_WAIT.observeSince(queued);
+            return signNow(pdf);
+        });
+        try {
+            return signed.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+        if (timestamper != null) {
+            timestamper.interrupt();
+        }
+    }
+
+    private byte[] signNow(byte[] pdf) throws Exception {
+        PdfReader reader = new PdfReader(pdf);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(pdf.length + 2 * estimatedSize + 2048);
+        PdfStamper stamper = PdfStamper.createSignature(reader, out, '\0', null, true);
+        PdfSignatureAppearance appearance = stamper.getSignatureAppearance();
+        appearance.setReason(reason);
+        appearance.setCertificate(certificate);
+        MakeSignature.signExternalContainer(appearance, new ExternalSignatureContainer() {
+            @Override
+            public byte[] sign(InputStream data) throws GeneralSecurityException {
+                return cms.sign(data);
+            }
+
+            @Override
+            public void modifySigningDictionary(PdfDictionary signDic) {
+                signDic.put(PdfName.FILTER, PdfName.ADOBE_PPKLITE);
+                signDic.put(PdfName.SUBFILTER, PdfName.ADBE_PKCS7_DETACHED);
+            }
+        }, estimatedSize);
+        return out.toByteArray();
+    }
+
+    /**
+     * Queues an imprint for the timestamp thread and waits for its token.
+     */
+    private byte[] timestamp(byte[] imprint) throws IOException {
+        Pending pending = new Pending(imprint);
+        synchronized (timestampQueue) {
+            if (timestampsClosed) {
+                throw new IOException("Timestamping has shut down");
+            }
+            timestampQueue.add(pending);
+        }
+        try {
+            return pending.token.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private void timestampLoop() {
+        List<Pending> batch = new ArrayList<>();
+        List<byte[]> imprints = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(timestampQueue.take());
+            } catch (InterruptedException e) {
+                // Shutting down: fail what is still queued, and refuse anything later, so
+                // no signer worker is left waiting for a token
+                synchronized (timestampQueue) {
+                    timestampsClosed = true;
+                }
+                IOException closed = new IOException("Timestamping has shut down");
+                for (Pending late; (late = timestampQueue.poll()) != null; ) {
+                    late.token.completeExceptionally(closed);
+                }
+                return;
+            }
+            timestampQueue.drainTo(batch, timestampBatch - 1);
+            for (Pending pending : batch) {
+                imprints.add(pending.imprint);
+            }
+            long start = System.nanoTime();
+            try {
+                List<byte[]> tokens = authority.timestamp(imprints);
+                if (tokens.size() != batch.size()) {
+                    throw new IOException("Timestamp authority returned " + tokens.size() + " tokens for "
+                                          + batch.size() + " requests");
+                }
+                TSA_TIME.observeSince(start);
+                TSA_REQUESTS.inc();
+                TSA_TOKENS.add(tokens.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).token.complete(tokens.get(i));
+                }
+            } catch (IOException | RuntimeException e) {
+                for (Pending pending : batch) {
+                    pending.token.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+            imprints.clear();
+        }
+    }
+
+    /**
+     * The BouncyCastle side of signing, in a class of its own so that the server starts
+     * without the BouncyCastle jars on its runtime classpath when signing is off. They are
+     * still needed to compile the tree.
+     */
+    private final class Cms {
+        private final JcaCertStore chain;
+        // Each worker's CMS generator; built once per thread since it is not thread-safe
+        private final ThreadLocal<CMSSignedDataGenerator> generators = new ThreadLocal<>();
+
+        Cms(Certificate[] chain) throws GeneralSecurityException {
+            try {
+                this.chain = new JcaCertStore(List.of(chain));
+            } catch (CertificateEncodingException e) {
+                throw new GeneralSecurityException(e);
+            }
+        }
+
+        /**
+         * The CMS SignedData for the signed byte ranges, with a timestamp on the signature
+         * value when there is an authority.
+         */
+        byte[] sign(InputStream data) throws GeneralSecurityException {
+            try {
+                CMSSignedDataGenerator generator = generators.get();
+                if (generator == null) {
+                    generator = new CMSSignedDataGenerator();
+                    generator.addSignerInfoGenerator(
+                            new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().build())
+                                    .build(new JcaContentSignerBuilder(algorithm).build(key), certificate));
+                    generator.addCertificates(chain);
+                    generators.set(generator);
+                }
+                CMSSignedData signed = generator.generate(new CMSProcessableByteArray(data.readAllBytes()), false);
+                if (authority == null) {
+                    return signed.getEncoded();
+                }
+
+                long start = System.nanoTime();
+                List<SignerInformation> signers = new ArrayList<>();
+                for (SignerInformation signer : signed.getSignerInfos().getSigners()) {
+                    byte[] imprint = MessageDigest.getInstance("SHA-256").digest(signer.getSignature());
+                    Attribute token = new Attribute(PKCSObjectIdentifiers.id_aa_signatureTimeStampToken,
+                                                    new DERSet(ASN1Primitive.fromByteArray(timestamp(imprint))));
+                    signers.add(SignerInformation.replaceUnsignedAttributes(signer, new AttributeTable(token)));
+                }
+                TIMESTAMP_WAIT.observeSince(start);
+                return CMSSignedData.replaceSigners(signed, new SignerInformationStore(signers)).getEncoded();
+            } catch (GeneralSecurityException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new GeneralSecurityException("Cannot sign certificate", e);
+            }
+        }
+    }
+
+    private static String signatureAlgorithm(PrivateKey key) throws GeneralSecurityException {
+        switch (key.getAlgorithm()) {
+            case "RSA":
+                return "SHA256withRSA";
+            case "EC":
+                return "SHA256withECDSA";
+            default:
+                throw new GeneralSecurityException("Unsupported signing key algorithm: " + key.getAlgorithm());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary image of the whole registry (data/certificates.snapshot), written by ledger
+ * compaction so that startup reads one compact file instead of replaying every entry.
+ *
+ * Layout, all integers big-endian:
+ *
+ *   header      magic "CSNP", version, record count, dictionary size
+ *   dictionary  every distinct type, course, date, instructor, hours and status value,
+ *               each as [u16 length][UTF-8]
+ *   records     sorted by ID, each as id, name and generated ([u16 length][UTF-8]),
+ *               then six u32 dictionary references
+ *   trailer     CRC32 of everything before it
+ *
+ * Fields repeated across certificates are stored once, and every record read back
+ * shares the same String for them. The file is memory-mapped for reading.
+ */
+public final class CertificateSnapshot {
+
+    private static final int MAGIC = 0x43534E50; // "CSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private CertificateSnapshot() {
+    }
+
+    /**
+     * Writes the records to a temporary file, forces it to disk and moves it over the
+     * target, so a reader only ever sees a complete snapshot.
+     */
+    public static void write(Path target, Collection<CertificateRecord> records) throws IOException {
+        List<CertificateRecord> sorted = new ArrayList<>(records);
+        sorted.sort((a, b) -> a.id().compareTo(b.id()));
+
+        Map<String, Integer> codes = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        for (CertificateRecord r : sorted) {
+            for (String value : dictionaryFields(r)) {
+                if (codes.putIfAbsent(value, dictionary.size()) == null) {
+                    dictionary.add(value);
+                }
+            }
+        }
+
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            // Not closed: closing the stream would close the channel too
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            out.writeInt(dictionary.size());
+            for (String value : dictionary) {
+                writeString(out, value);
+            }
+            for (CertificateRecord r : sorted) {
+                writeString(out, r.id());
+                writeString(out, r.name());
+                writeString(out, r.generated());
+                for (String value : dictionaryFields(r)) {
+                    out.writeInt(codes.get(value));
+                }
+            }
+            out.flush();
+            ByteBuffer trailer = ByteBuffer.allocate(4).putInt((int) crc.getValue());
+            trailer.flip();
+            while (trailer.hasRemaining()) {
+                channel.write(trailer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Hands every record to the visitor in ID order; returns false, reading nothing, if
+     * there is no snapshot.
+     */
+    public static boolean read(Path file, CertificateLedger.Visitor visitor) throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 4 || size > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt snapshot " + file + ": unexpected size " + size);
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            CRC32 crc = new CRC32();
+            crc.update(data.duplicate().limit((int) size - 4));
+            if ((int) crc.getValue() != data.getInt((int) size - 4)) {
+                throw new IOException("Corrupt snapshot " + file + ": checksum mismatch");
+            }
+            if (data.getInt() != MAGIC) {
+                throw new IOException("Not a certificate snapshot: " + file);
+            }
+            int version = data.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + file);
+            }
+            int count = data.getInt();
+            String[] dictionary = new String[data.getInt()];
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = readString(data, scratch);
+            }
+            for (int i = 0; i < count; i++) {
+                String id = readString(data, scratch);
+                String name = readString(data, scratch);
+                String generated = readString(data, scratch);
+                String type = dictionary[data.getInt()];
+                String course = dictionary[data.getInt()];
+                String date = dictionary[data.getInt()];
+                String instructor = dictionary[data.getInt()];
+                String hours = dictionary[data.getInt()];
+                String status = dictionary[data.getInt()];
+                visitor.onIssue(new CertificateRecord(id, name, type, course, date, instructor, hours,
+                                                      generated, status));
+            }
+        }
+        return true;
+    }
+
+    private static String[] dictionaryFields(CertificateRecord r) {
+        return new String[] {r.type(), r.course(), r.date(), r.instructor(), r.hours(), r.status()};
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw new IOException("Field too long for a snapshot: " + bytes.length + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer data, byte[] scratch) {
+        int length = data.getShort() & 0xffff;
+        if (scratch.length < length) {
+            scratch = new byte[length];
+        }
+        data.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Where rendered certificate PDFs live. Three layouts are available through
+ * cert.store.layout:
+ *
+ *   flat     every PDF as certificates/certificate_&lt;id&gt;.pdf (the original layout)
+ *   sharded  the same files spread over certificates/xx/yy/ by a hash of the ID
+ *   packed   PDFs appended to large segment files with an offset index
+ *
+ * PDFs still sitting in the layout named by cert.store.legacyLayout (default: flat) stay
+ * readable, so /download links keep working before and during a migration from it (see
+ * MigrateStorage). Configured with cert.store.layout (default: flat), cert.store.dir
+ * (default: certificates), cert.store.legacyLayout ("none" for no fallback) and
+ * cert.store.segmentBytes (packed segment size, default: 256 MB).
+ */
+public interface CertificateStore extends Closeable {
+
+    /**
+     * One stored PDF as a slice of an open file; close it when done.
+     */
+    final class Blob implements Closeable {
+        public final FileChannel channel;
+        public final long offset;
+        public final long length;
+        private final boolean owned;
+
+        Blob(FileChannel channel, long offset, long length, boolean owned) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+            this.owned = owned;
+        }
+
+        public byte[] readAll() throws IOException {
+            byte[] data = new byte[(int) length];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Stored certificate is truncated");
+                }
+            }
+            return data;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (owned) {
+                channel.close();
+            }
+        }
+    }
+
+    record Entry(String id, long size, long lastAccess) {}
+
+    interface Visitor {
+        void visit(Entry entry) throws IOException;
+    }
+
+    void put(String certId, byte[] pdf) throws IOException;
+
+    /**
+     * Returns null if the store has no PDF for this ID.
+     */
+    Blob open(String certId) throws IOException;
+
+    boolean delete(String certId) throws IOException;
+
+    void scan(Visitor visitor) throws IOException;
+
+    /**
+     * Whether delete() gives the PDF's space back on disk.
+     */
+    default boolean reclaimsSpace() {
+        return true;
+    }
+
+    static CertificateStore fromSystemProperties() throws IOException {
+        String layout = System.getProperty("cert.store.layout", "flat");
+        String legacy = System.getProperty("cert.store.legacyLayout", "flat");
+        return open(layout, Path.of(System.getProperty("cert.store.dir", "certificates")),
+                    Long.getLong("cert.store.segmentBytes", 256L << 20),
+                    legacy.equalsIgnoreCase("none") || legacy.equalsIgnoreCase(layout) ? null : legacy);
+    }
+
+    /**
+     * Opens a layout by name; a legacyLayout adds read access to PDFs still stored in it.
+     */
+    static CertificateStore open(String layout, Path dir, long segmentBytes, String legacyLayout) throws IOException {
+        CertificateStore store;
+        switch (layout.toLowerCase()) {
+            case "flat":
+                store = new FileCertificateStore(dir, false);
+                break;
+            case "sharded":
+                store = new FileCertificateStore(dir, true);
+                break;
+            case "packed":
+                store = new PackedCertificateStore(dir, segmentBytes);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown storage layout: " + layout);
+        }
+        if (legacyLayout == null) {
+            return store;
+        }
+        try {
+            return new WithLegacy(store, open(legacyLayout, dir, segmentBytes, null));
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes go to the configured layout; reads fall back to the legacy one.
+     */
+    final class WithLegacy implements CertificateStore {
+        private final CertificateStore primary;
+        private final CertificateStore legacy;
+
+        WithLegacy(CertificateStore primary, CertificateStore legacy) {
+            this.primary = primary;
+            this.legacy = legacy;
+        }
+
+        public void put(String certId, byte[] pdf) throws IOException {
+            primary.put(certId, pdf);
+        }
+
+        public Blob open(String certId) throws IOException {
+            Blob blob = primary.open(certId);
+            return blob != null ? blob : legacy.open(certId);
+        }
+
+        public boolean delete(String certId) throws IOException {
+            boolean deleted = primary.delete(certId);
+            return legacy.delete(certId) || deleted;
+        }
+
+        public void scan(Visitor visitor) throws IOException {
+            primary.scan(visitor);
+            legacy.scan(visitor);
+        }
+
+        public boolean reclaimsSpace() {
+            return primary.reclaimsSpace() && legacy.reclaimsSpace();
+        }
+
+        public void close() throws IOException {
+            primary.close();
+            legacy.close();
+        }
+    }
+}
@@ -0,0 +1,452 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Storage behind CertificateRegistry: one fixed-width row per certificate in primitive
+ * arrays instead of a record object with nine Strings.
+ *
+ * Fields that repeat across certificates (type, course, date, instructor, hours and
+ * status) are stored as codes into per-field dictionaries, so each distinct value is
+ * held once. The rest (id, name and generated) is packed as UTF-8 into large shared
+ * byte arrays. A certificate costs about a hundred bytes, and the garbage collector
+ * has a handful of large arrays to look at rather than millions of small objects.
+ *
+ * Rows are found by id through an open-addressing hash table and kept in id order in
+ * a sorted row array for paging. Readers hold the read lock only while copying rows
+ * out as CertificateRecords, so a record handed out is never changed afterwards.
+ */
+public final class CertificateTable {
+
+    public static final int TYPE = 0;
+    public static final int COURSE = 1;
+    public static final int DATE = 2;
+    public static final int INSTRUCTOR = 3;
+    public static final int HOURS = 4;
+    public static final int STATUS = 5;
+    private static final int FIELDS = 6;
+
+    // Text of one row never spans chunks; three u16-length fields always fit in one
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /**
+     * Distinct values of one field, numbered in order of first use.
+     */
+    private static final class Dictionary {
+        final List<String> values = new ArrayList<>();
+        final Map<String, Integer> codes = new HashMap<>();
+        int[] rows = new int[16];
+
+        int code(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                codes.put(value, code);
+                if (code == rows.length) {
+                    rows = Arrays.copyOf(rows, code * 2);
+                }
+            }
+            return code;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Dictionary[] dictionaries = new Dictionary[FIELDS];
+    private final List<byte[]> chunks = new ArrayList<>();
+    private int chunkPos = CHUNK_SIZE;
+
+    private int size;
+    private int[] codes = new int[1024 * FIELDS];
+    private long[] text = new long[1024];
+    private int[] hashes = new int[1024];
+    // Row + 1 per slot, 0 for empty; kept at most half full
+    private int[] slots = new int[2048];
+    // Every row, sorted by id
+    private int[] ordered = new int[1024];
+
+    public CertificateTable() {
+        for (int i = 0; i < FIELDS; i++) {
+            dictionaries[i] = new Dictionary();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public CertificateRecord get(String id) {
+        lock.readLock().lock();
+        try {
+            int row = find(id);
+            return row < 0 ? null : read(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The certificate in a row. Rows are numbered from 0 in the order certificates were
+     * first added and keep their number, so size() - 1 is the newest.
+     */
+    public CertificateRecord record(int row) {
+        lock.readLock().lock();
+        try {
+            return read(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The name in a row, without copying out the rest of the record.
+     */
+    public String name(int row) {
+        lock.readLock().lock();
+        try {
+            long offset = text[row];
+            byte[] chunk = chunks.get((int) (offset >>> CHUNK_BITS));
+            int pos = (int) (offset & (CHUNK_SIZE - 1));
+            pos += 2 + readLength(chunk, pos);
+            return new String(chunk, pos + 2, readLength(chunk, pos), StandardCharsets.UTF_8);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the code of one field for each of the first {@code count} given rows into
+     * {@code out}.
+     */
+    public void fieldCodes(int[] rows, int count, int field, int[] out) {
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                out[i] = codes[rows[i] * FIELDS + field];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Collects, newest first, the rows below {@code before} in which any field holds an
+     * accepted code (null BitSets accept nothing), looking at no more than {@code budget}
+     * rows and filling at most {@code out.length}. Returns how many were found, and sets
+     * {@code lowest[0]} to the last row looked at so a further call can continue below it.
+     */
+    public int rowsWithAny(BitSet[] accept, int before, int budget, int[] out, int[] lowest) {
+        lock.readLock().lock();
+        try {
+            int found = 0;
+            int row = Math.min(before, size);
+            int stop = Math.max(0, row - budget);
+            while (row > stop && found < out.length) {
+                row--;
+                for (int field = 0; field < accept.length; field++) {
+                    if (accept[field] != null && accept[field].get(codes[row * FIELDS + field])) {
+                        out[found++] = row;
+                        break;
+                    }
+                }
+            }
+            lowest[0] = row;
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a certificate, or overwrites the one with the same id.
+     */
+    public void put(CertificateRecord record) {
+        lock.writeLock().lock();
+        try {
+            int row = find(record.id());
+            if (row >= 0) {
+                setCodes(row, record);
+                text[row] = writeText(record);
+                return;
+            }
+            row = size;
+            if (row == text.length) {
+                grow();
+            }
+            int hash = hash(record.id());
+            hashes[row] = hash;
+            Arrays.fill(codes, row * FIELDS, row * FIELDS + FIELDS, -1);
+            setCodes(row, record);
+            text[row] = writeText(record);
+            insertOrdered(row, record.id());
+            size++;
+            if (size * 2 > slots.length) {
+                rehash(slots.length * 2);
+            } else {
+                insertSlot(row, hash);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the status of an existing certificate; returns false if there is none.
+     */
+    public boolean setStatus(String id, String status) {
+        lock.writeLock().lock();
+        try {
+            int row = find(id);
+            if (row < 0) {
+                return false;
+            }
+            setCode(row, STATUS, status);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Codes of the values of a field that the predicate accepts.
+     */
+    public BitSet codes(int field, Predicate<String> accept) {
+        lock.readLock().lock();
+        try {
+            List<String> values = dictionaries[field].values;
+            BitSet matching = new BitSet(values.size());
+            for (int code = 0; code < values.size(); code++) {
+                if (accept.test(values.get(code))) {
+                    matching.set(code);
+                }
+            }
+            return matching;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of rows whose field holds one of the given codes.
+     */
+    public int count(int field, BitSet accept) {
+        lock.readLock().lock();
+        try {
+            int[] rows = dictionaries[field].rows;
+            int n = 0;
+            for (int code = accept.nextSetBit(0); code >= 0 && code < rows.length; code = accept.nextSetBit(code + 1)) {
+                n += rows[code];
+            }
+            return n;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the records after {@code after} in id order (before it, if descending)
+     * into {@code out}, skipping rows whose coded fields are not accepted (a null
+     * BitSet accepts anything) or that fail {@code matches}. Stops once {@code limit}
+     * records were copied or {@code budget} rows looked at, and returns the id of the
+     * last row looked at, to continue from, or null when the end was reached.
+     */
+    public String scan(String after, boolean descending, BitSet[] accept, Predicate<CertificateRecord> matches,
+                       int limit, int budget, List<CertificateRecord> out) {
+        lock.readLock().lock();
+        try {
+            int i = after == null ? (descending ? size - 1 : 0) : position(after, descending);
+            int step = descending ? -1 : 1;
+            int added = 0;
+            for (int seen = 0; i >= 0 && i < size; i += step) {
+                if (added == limit || seen++ == budget) {
+                    return id(ordered[i - step]);
+                }
+                int row = ordered[i];
+                if (accepted(row, accept)) {
+                    CertificateRecord record = read(row);
+                    if (matches.test(record)) {
+                        out.add(record);
+                        added++;
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean accepted(int row, BitSet[] accept) {
+        for (int field = 0; field < accept.length; field++) {
+            if (accept[field] != null && !accept[field].get(codes[row * FIELDS + field])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Index in the ordered rows of the first id after the given one, or of the last id
+     * before it when descending.
+     */
+    private int position(String after, boolean descending) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (id(ordered[mid]).compareTo(after) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (!descending) {
+            return low;
+        }
+        int i = low - 1;
+        return i >= 0 && id(ordered[i]).equals(after) ? i - 1 : i;
+    }
+
+    private CertificateRecord read(int row) {
+        long offset = text[row];
+        byte[] chunk = chunks.get((int) (offset >>> CHUNK_BITS));
+        int pos = (int) (offset & (CHUNK_SIZE - 1));
+        int idLength = readLength(chunk, pos);
+        String id = new String(chunk, pos + 2, idLength, StandardCharsets.UTF_8);
+        pos += 2 + idLength;
+        int nameLength = readLength(chunk, pos);
+        String name = new String(chunk, pos + 2, nameLength, StandardCharsets.UTF_8);
+        pos += 2 + nameLength;
+        String generated = new String(chunk, pos + 2, readLength(chunk, pos), StandardCharsets.UTF_8);
+        int base = row * FIELDS;
+        return new CertificateRecord(id, name, value(TYPE, codes[base + TYPE]), value(COURSE, codes[base + COURSE]),
+                                     value(DATE, codes[base + DATE]), value(INSTRUCTOR, codes[base + INSTRUCTOR]),
+                                     value(HOURS, codes[base + HOURS]), generated, value(STATUS, codes[base + STATUS]));
+    }
+
+    private String id(int row) {
+        long offset = text[row];
+        byte[] chunk = chunks.get((int) (offset >>> CHUNK_BITS));
+        int pos = (int) (offset & (CHUNK_SIZE - 1));
+        return new String(chunk, pos + 2, readLength(chunk, pos), StandardCharsets.UTF_8);
+    }
+
+    private String value(int field, int code) {
+        return dictionaries[field].values.get(code);
+    }
+
+    private int find(String id) {
+        int hash = hash(id);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int row = slots[slot] - 1;
+            if (hashes[row] == hash && id(row).equals(id)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private void insertSlot(int row, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int row = 0; row < size; row++) {
+            insertSlot(row, hashes[row]);
+        }
+    }
+
+    /**
+     * Places a new row, not yet counted in size, among the ordered rows.
+     */
+    private void insertOrdered(int row, String id) {
+        // Ids are issued in increasing order, so this is nearly always an append
+        int i = size == 0 || id(ordered[size - 1]).compareTo(id) < 0 ? size : position(id, false);
+        System.arraycopy(ordered, i, ordered, i + 1, size - i);
+        ordered[i] = row;
+    }
+
+    private void grow() {
+        int capacity = text.length + (text.length >> 1);
+        codes = Arrays.copyOf(codes, capacity * FIELDS);
+        text = Arrays.copyOf(text, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        ordered = Arrays.copyOf(ordered, capacity);
+    }
+
+    private void setCodes(int row, CertificateRecord r) {
+        setCode(row, TYPE, r.type());
+        setCode(row, COURSE, r.course());
+        setCode(row, DATE, r.date());
+        setCode(row, INSTRUCTOR, r.instructor());
+        setCode(row, HOURS, r.hours());
+        setCode(row, STATUS, r.status());
+    }
+
+    private void setCode(int row, int field, String value) {
+        Dictionary dictionary = dictionaries[field];
+        int code = dictionary.code(value);
+        int index = row * FIELDS + field;
+        if (codes[index] >= 0) {
+            dictionary.rows[codes[index]]--;
+        }
+        codes[index] = code;
+        dictionary.rows[code]++;
+    }
+
+    /**
+     * Appends the id, name and generated fields of a record and returns where they start.
+     */
+    private long writeText(CertificateRecord r) {
+        byte[] id = r.id().getBytes(StandardCharsets.UTF_8);
+        byte[] name = r.name().getBytes(StandardCharsets.UTF_8);
+        byte[] generated = r.generated().getBytes(StandardCharsets.UTF_8);
+        for (byte[] field : new byte[][] {id, name, generated}) {
+            if (field.length > 0xffff) {
+                throw new IllegalArgumentException("Field too long: " + field.length + " bytes");
+            }
+        }
+        int length = 6 + id.length + name.length + generated.length;
+        if (chunkPos + length > CHUNK_SIZE) {
+            chunks.add(new byte[CHUNK_SIZE]);
+            chunkPos = 0;
+        }
+        byte[] chunk = chunks.get(chunks.size() - 1);
+        long offset = ((long) (chunks.size() - 1) << CHUNK_BITS) | chunkPos;
+        for (byte[] field : new byte[][] {id, name, generated}) {
+            chunk[chunkPos] = (byte) (field.length >>> 8);
+            chunk[chunkPos + 1] = (byte) field.length;
+            System.arraycopy(field, 0, chunk, chunkPos + 2, field.length);
+            chunkPos += 2 + field.length;
+        }
+        return offset;
+    }
+
+    private static int readLength(byte[] chunk, int pos) {
+        return (chunk[pos] & 0xff) << 8 | (chunk[pos + 1] & 0xff);
+    }
+
+    private static int hash(String id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,145 @@
+import com.itextpdf.text.*;
+import com.itextpdf.text.pdf.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The static layer of one certificate layout, compiled once and stamped into every
+ * certificate that uses it.
+ *
+ * Compiling runs the full table layout a single time with placeholder chunks in place
+ * of the variable text and records where iText put each placeholder. The result is
+ * kept as a small PDF; each certificate imports its pages as form XObjects and only
+ * draws the variable strings at the recorded positions, so the table layout, borders
+ * and static paragraphs are never rebuilt per certificate.
+ *
+ * Each render borrows a parsed copy of that PDF and returns it once its document is
+ * closed. The copies are pooled in the template itself, so a template evicted from the
+ * cache takes its readers with it.
+ */
+public class CertificateTemplate {
+
+    public interface Layout {
+        void build(Document document, PdfWriter writer, Slots slots) throws Exception;
+    }
+
+    /**
+     * Hands out placeholder chunks while a layout is being compiled.
+     */
+    public static class Slots {
+        private final Map<String, Float> maxWidths = new HashMap<>();
+
+        public Chunk slot(String name, Font font, float maxWidth) {
+            maxWidths.put(name, maxWidth);
+            Chunk chunk = new Chunk("\u00a0", font);
+            chunk.setGenericTag(name);
+            return chunk;
+        }
+    }
+
+    private static class Slot {
+        final int page;
+        final float centerX;
+        final float baseline;
+        final float maxWidth;
+
+        Slot(int page, float centerX, float baseline, float maxWidth) {
+            this.page = page;
+            this.centerX = centerX;
+            this.baseline = baseline;
+            this.maxWidth = maxWidth;
+        }
+    }
+
+    private static final int MAX_IDLE_READERS = Runtime.getRuntime().availableProcessors();
+
+    private final byte[] pdf;
+    private final int pageCount;
+    private final Map<String, Slot> slots;
+    private final BlockingQueue<PdfReader> readers = new ArrayBlockingQueue<>(MAX_IDLE_READERS);
+
+    private CertificateTemplate(byte[] pdf, int pageCount, Map<String, Slot> slots) {
+        this.pdf = pdf;
+        this.pageCount = pageCount;
+        this.slots = slots;
+    }
+
+    public static CertificateTemplate compile(Rectangle pageSize, Layout layout) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        // Compile on an unrotated page of the same size: an imported page keeps no /Rotate
+        // of its own, and the target page's rotation is applied when it is stamped
+        Document document = new Document(new Rectangle(pageSize.getWidth(), pageSize.getHeight()));
+        PdfWriter writer = PdfWriter.getInstance(document, out);
+        Slots placeholders = new Slots();
+        Map<String, Slot> slots = new HashMap<>();
+        writer.setPageEvent(new PdfPageEventHelper() {
+            @Override
+            public void onGenericTag(PdfWriter w, Document d, Rectangle rect, String name) {
+                // The tag rectangle starts at the chunk's baseline
+                Float maxWidth = placeholders.maxWidths.get(name);
+                slots.put(name, new Slot(w.getPageNumber(), (rect.getLeft() + rect.getRight()) / 2,
+                                         rect.getBottom(), maxWidth == null ? 0 : maxWidth));
+            }
+        });
+
+        document.open();
+        layout.build(document, writer, placeholders);
+        int pages = writer.getPageNumber();
+        document.close();
+        return new CertificateTemplate(out.toByteArray(), pages, slots);
+    }
+
+    public int pageCount() {
+        return pageCount;
+    }
+
+    /**
+     * A parsed copy of the template for one render. The writer it is drawn into keeps
+     * using it until its document is closed, so only then is it handed back to release().
+     */
+    public PdfReader acquire() throws IOException {
+        PdfReader reader = readers.poll();
+        return reader != null ? reader : new PdfReader(pdf);
+    }
+
+    public void release(PdfReader reader) {
+        // Beyond the pool's size, a returned reader is simply dropped
+        readers.offer(reader);
+    }
+
+    /**
+     * Draws the static layer of one template page onto the current page.
+     */
+    public void drawPage(PdfWriter writer, PdfReader reader, int page) {
+        PdfImportedPage imported = writer.getImportedPage(reader, page);
+        writer.getDirectContent().addTemplate(imported, 0, 0);
+    }
+
+    /**
+     * Writes text centred on a slot's line if the slot lives on this page. Text wider
+     * than the slot is scaled down to fit on one line.
+     */
+    public void fill(PdfContentByte canvas, int page, String name, String text, Font font) {
+        Slot slot = slots.get(name);
+        if (slot == null || slot.page != page || text.isEmpty()) {
+            return;
+        }
+        float width = font.getCalculatedBaseFont(false).getWidthPoint(text, font.getSize());
+        Font fitted = font;
+        if (slot.maxWidth > 0 && width > slot.maxWidth) {
+            fitted = new Font(font);
+            fitted.setSize(font.getSize() * slot.maxWidth / width);
+        }
+        ColumnText.showTextAligned(canvas, Element.ALIGN_CENTER, new Phrase(text, fitted),
+                                   slot.centerX, slot.baseline, 0);
+    }
+
+    public int size() {
+        return pdf.length;
+    }
+}
@@ -0,0 +1,307 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Answers /verify lookups. The JSON answer for a known certificate is built once and
+ * kept in a bounded LRU, so a repeated scan is a hash lookup and a byte copy. Unknown
+ * IDs are turned away by a Bloom filter over every issued ID before the registry is
+ * consulted; the few that get past it by false positive are remembered in a small
+ * negative cache. The registry tells the verifier about issues and revocations, so a
+ * revoked certificate never verifies as active from the cache.
+ *
+ * Configured with cert.verify.cacheSize (default: 100000), cert.verify.negativeCacheSize
+ * (default: 10000) and cert.verify.expected (Bloom filter capacity before it is rebuilt
+ * twice as large, default: 1000000 or twice the registry).
+ */
+public class CertificateVerifier implements CertificateRegistry.Listener {
+
+    public static final class Result {
+        public final int status;
+        public final byte[] body;
+
+        Result(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final Result INVALID = new Result(400,
+            "{\"valid\": false, \"error\": \"Invalid certificate ID\"}".getBytes(StandardCharsets.UTF_8));
+
+    private static final Metrics.Counter ANSWER_HITS = Metrics.cacheLookups("verify_answers", "hit");
+    private static final Metrics.Counter ANSWER_MISSES = Metrics.cacheLookups("verify_answers", "miss");
+    private static final Metrics.Counter FILTER_REJECTS = Metrics.counter("cert_verify_filter_rejections_total",
+            "Unknown IDs turned away by the Bloom filter without a registry lookup");
+    private static final Metrics.Counter UNKNOWN_HITS = Metrics.cacheLookups("verify_unknown", "hit");
+    private static final Metrics.Counter UNKNOWN_MISSES = Metrics.cacheLookups("verify_unknown", "miss");
+
+    private final CertificateRegistry registry;
+    private final Lru<byte[]> answers;
+    private final Lru<Boolean> unknown;
+    private volatile IdFilter issued;
+
+    private CertificateVerifier(CertificateRegistry registry, int cacheSize, int negativeCacheSize, long expected) {
+        this.registry = registry;
+        this.answers = new Lru<>(cacheSize);
+        this.unknown = new Lru<>(negativeCacheSize);
+        this.issued = IdFilter.of(registry, Math.max(expected, 2L * registry.size()));
+    }
+
+    /**
+     * Creates a verifier and subscribes it to the registry's issues and revocations.
+     */
+    public static CertificateVerifier create(CertificateRegistry registry, int cacheSize, int negativeCacheSize,
+                                             long expected) {
+        CertificateVerifier verifier = new CertificateVerifier(registry, cacheSize, negativeCacheSize, expected);
+        registry.addListener(verifier);
+        return verifier;
+    }
+
+    public static CertificateVerifier fromSystemProperties(CertificateRegistry registry) {
+        return create(registry,
+                Integer.getInteger("cert.verify.cacheSize", 100_000),
+                Integer.getInteger("cert.verify.negativeCacheSize", 10_000),
+                Long.getLong("cert.verify.expected", 1_000_000));
+    }
+
+    public Result verify(String id) {
+        if (!wellFormed(id)) {
+            return INVALID;
+        }
+        byte[] cached = answers.get(id);
+        if (cached != null) {
+            ANSWER_HITS.inc();
+            return new Result(200, cached);
+        }
+        ANSWER_MISSES.inc();
+        if (!issued.mightContain(id)) {
+            FILTER_REJECTS.inc();
+            return notFound(id);
+        }
+        if (unknown.get(id) != null) {
+            UNKNOWN_HITS.inc();
+            return notFound(id);
+        }
+        UNKNOWN_MISSES.inc();
+
+        CertificateRecord record = registry.get(id);
+        if (record == null) {
+            unknown.put(id, Boolean.TRUE);
+            // Issued while this lookup ran: drop the negative entry again
+            if (registry.get(id) != null) {
+                unknown.remove(id);
+            }
+            return notFound(id);
+        }
+        byte[] body = answer(record);
+        answers.put(id, body);
+        // Revoked while this lookup ran: the listener may already have cleared the slot
+        if (!record.equals(registry.get(id))) {
+            answers.remove(id);
+        }
+        return new Result(200, body);
+    }
+
+    @Override
+    public void issued(CertificateRecord record) {
+        IdFilter filter = issued;
+        if (filter.isFull()) {
+            filter = grow(filter);
+        }
+        filter.add(record.id());
+        // A rebuild that started before this record was visible may have missed it
+        if (issued != filter) {
+            issued.add(record.id());
+        }
+        unknown.remove(record.id());
+    }
+
+    @Override
+    public void revoked(CertificateRecord record) {
+        answers.remove(record.id());
+    }
+
+    private synchronized IdFilter grow(IdFilter full) {
+        if (issued == full) {
+            issued = IdFilter.of(registry, full.capacity * 2);
+        }
+        return issued;
+    }
+
+    private static byte[] answer(CertificateRecord r) {
+        try {
+            return JsonWriter.buffered().beginObject()
+                    .field("valid", !r.isRevoked())
+                    .field("id", r.id())
+                    .field("status", r.status())
+                    .field("name", r.name())
+                    .field("type", r.type())
+                    .field("course", r.course())
+                    .field("date", r.date())
+                    .field("issued", r.generated())
+                    .endObject().toByteArray();
+        } catch (IOException e) {
+            // A buffered writer has no stream to fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Result notFound(String id) {
+        try {
+            return new Result(404, JsonWriter.buffered().beginObject()
+                    .field("valid", false)
+                    .field("id", id)
+                    .field("error", "Certificate not found")
+                    .endObject().toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * CERT followed by digits; anything else cannot have been issued here.
+     */
+    static boolean wellFormed(String id) {
+        if (id == null || id.length() <= CertificateIdGenerator.PREFIX.length() || id.length() > 40 ||
+            !id.startsWith(CertificateIdGenerator.PREFIX)) {
+            return false;
+        }
+        for (int i = CertificateIdGenerator.PREFIX.length(); i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Bloom filter over issued IDs with lock-free inserts.
+     */
+    static final class IdFilter {
+        final long capacity;
+        private final long bits;
+        private final int hashes;
+        private final AtomicLongArray words;
+        private final AtomicLong count = new AtomicLong();
+
+        IdFilter(long capacity) {
+            this.capacity = Math.max(1024, capacity);
+            long m = (long) Math.ceil(-this.capacity * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+            this.words = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64));
+            this.bits = (long) words.length() * 64;
+            this.hashes = Math.max(1, (int) Math.round((double) bits / this.capacity * Math.log(2)));
+        }
+
+        static IdFilter of(CertificateRegistry registry, long capacity) {
+            IdFilter filter = new IdFilter(capacity);
+            for (CertificateRecord record : registry.all()) {
+                filter.add(record.id());
+            }
+            return filter;
+        }
+
+        boolean isFull() {
+            return count.get() >= capacity;
+        }
+
+        void add(String id) {
+            long h1 = hash(id);
+            long h2 = mix(h1) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bits);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long current = words.get(word);
+                while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+                    current = words.get(word);
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        boolean mightContain(String id) {
+            long h1 = hash(id);
+            long h2 = mix(h1) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bits);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // 64-bit FNV-1a
+        private static long hash(String s) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return mix(h);
+        }
+
+        // SplitMix64 finaliser
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    /**
+     * Access-ordered LRU split into independently locked segments, so concurrent
+     * lookups of different IDs rarely wait for each other.
+     */
+    static final class Lru<V> {
+        private static final int SEGMENTS = 16;
+        private final Map<String, V>[] segments;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Lru(int capacity) {
+            int perSegment = Math.max(1, capacity / SEGMENTS);
+            segments = new Map[SEGMENTS];
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new LinkedHashMap<String, V>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                        return size() > perSegment;
+                    }
+                };
+            }
+        }
+
+        V get(String key) {
+            Map<String, V> segment = segment(key);
+            synchronized (segment) {
+                return segment.get(key);
+            }
+        }
+
+        void put(String key, V value) {
+            Map<String, V> segment = segment(key);
+            synchronized (segment) {
+                segment.put(key, value);
+            }
+        }
+
+        void remove(String key) {
+            Map<String, V> segment = segment(key);
+            synchronized (segment) {
+                segment.remove(key);
+            }
+        }
+
+        private Map<String, V> segment(String key) {
+            int h = key.hashCode();
+            return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+        }
+    }
+}
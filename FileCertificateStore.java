@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * One file per certificate, either all in one directory (flat) or spread over two
+ * levels of 256 hash-named directories (sharded), which keeps every directory small
+ * however many certificates are issued.
+ */
+public class FileCertificateStore implements CertificateStore {
+
+    private static final String PREFIX = "certificate_";
+    private static final String SUFFIX = ".pdf";
+
+    private final Path dir;
+    private final boolean sharded;
+    private final Set<Path> createdDirs = ConcurrentHashMap.newKeySet();
+
+    public FileCertificateStore(Path dir, boolean sharded) throws IOException {
+        this.dir = dir;
+        this.sharded = sharded;
+        Files.createDirectories(dir);
+    }
+
+    Path path(String certId) {
+        String name = PREFIX + certId + SUFFIX;
+        if (!sharded) {
+            return dir.resolve(name);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(certId.getBytes(StandardCharsets.US_ASCII));
+        String hash = String.format("%08x", crc.getValue());
+        return dir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(name);
+    }
+
+    @Override
+    public void put(String certId, byte[] pdf) throws IOException {
+        Path target = path(certId);
+        Path parent = target.getParent();
+        if (sharded && createdDirs.add(parent)) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(tmp, pdf);
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public Blob open(String certId) throws IOException {
+        try {
+            FileChannel channel = FileChannel.open(path(certId), StandardOpenOption.READ);
+            return new Blob(channel, 0, channel.size(), true);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean delete(String certId) throws IOException {
+        return Files.deleteIfExists(path(certId));
+    }
+
+    @Override
+    public void scan(Visitor visitor) throws IOException {
+        if (!sharded) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+                for (Path file : files) {
+                    visit(file, visitor);
+                }
+            }
+            return;
+        }
+        try (Stream<Path> files = Files.find(dir, 3, (path, attrs) -> attrs.isRegularFile() &&
+                path.getNameCount() - dir.getNameCount() == 3 && isCertificate(path))) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                visit(file, visitor);
+            }
+        }
+    }
+
+    private static void visit(Path file, Visitor visitor) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        String name = file.getFileName().toString();
+        visitor.visit(new Entry(name.substring(PREFIX.length(), name.length() - SUFFIX.length()),
+                                attrs.size(), attrs.lastAccessTime().toMillis()));
+    }
+
+    private static boolean isCertificate(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,517 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background batch jobs. A submitted upload is spooled to data/jobs/&lt;id&gt;.input and
+ * rendered later by a bounded scheduler through the same {@link BatchIssuer} as
+ * /generate/batch. After every committed chunk the job writes a checkpoint
+ * (&lt;id&gt;.job) holding the last committed row and the length of its results file, so
+ * a job interrupted by a restart resumes where it stopped instead of starting over.
+ *
+ * Before a chunk is committed, the IDs its rows are about to be issued under are synced
+ * to &lt;id&gt;.pending. A restart between the ledger commit and the checkpoint finds those
+ * IDs in the registry and reports the rows as issued instead of issuing them again.
+ *
+ * Configured with cert.jobs.concurrent (default: 1), cert.jobs.queue (default: 100) and
+ * cert.jobs.maxUploadBytes (default: 32 MiB).
+ */
+public class JobManager {
+
+    public enum State { QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    /**
+     * Thrown by submit for an upload larger than the configured limit.
+     */
+    public static final class UploadTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UploadTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    public static class Job {
+        public final String id;
+        public final BatchInput.Format format;
+        public final long submitted;
+        volatile State state = State.QUEUED;
+        volatile int total;
+        volatile int processed;
+        volatile int issued;
+        volatile int failed;
+        volatile long resultsLength;
+        volatile long started;
+        volatile long finished;
+        volatile int processedAtStart;
+        volatile String error;
+        volatile boolean cancelRequested;
+        // Rows issued under these IDs but not yet covered by the checkpoint
+        final NavigableMap<Integer, String> issuedAhead = new TreeMap<>();
+
+        Job(String id, BatchInput.Format format, long submitted) {
+            this.id = id;
+            this.format = format;
+            this.submitted = submitted;
+        }
+
+        public State state() {
+            return state;
+        }
+
+        public int total() {
+            return total;
+        }
+
+        public int processed() {
+            return processed;
+        }
+
+        public int issued() {
+            return issued;
+        }
+
+        public int failed() {
+            return failed;
+        }
+
+        public long submitted() {
+            return submitted;
+        }
+
+        public long started() {
+            return started;
+        }
+
+        public long finished() {
+            return finished;
+        }
+
+        public String error() {
+            return error;
+        }
+
+        /**
+         * Rows per second over the current run, not counting rows done before a resume.
+         */
+        public double rowsPerSecond() {
+            long start = started;
+            if (start == 0) {
+                return 0;
+            }
+            long end = finished != 0 ? finished : System.currentTimeMillis();
+            double seconds = Math.max(1, end - start) / 1000.0;
+            return (processed - processedAtStart) / seconds;
+        }
+    }
+
+    private static final AtomicLong lastJobMillis = new AtomicLong();
+
+    private final Path dir;
+    private final BatchIssuer issuer;
+    private final ThreadPoolExecutor scheduler;
+    private final long maxUploadBytes;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public JobManager(Path dir, BatchIssuer issuer, int concurrent, int queueCapacity, long maxUploadBytes)
+            throws IOException {
+        this.dir = dir;
+        this.issuer = issuer;
+        this.maxUploadBytes = maxUploadBytes;
+        Files.createDirectories(dir);
+        AtomicLong counter = new AtomicLong();
+        this.scheduler = new ThreadPoolExecutor(concurrent, concurrent, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+                    Thread t = new Thread(r, "job-runner-" + counter.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    public static JobManager fromSystemProperties(String dataDir, BatchIssuer issuer) throws IOException {
+        JobManager manager = new JobManager(Path.of(dataDir, "jobs"), issuer,
+                Math.max(1, Integer.getInteger("cert.jobs.concurrent", 1)),
+                Integer.getInteger("cert.jobs.queue", 100),
+                Long.getLong("cert.jobs.maxUploadBytes", 32L << 20));
+        manager.resume();
+        return manager;
+    }
+
+    /**
+     * Spools the upload to disk and queues the job. Throws RejectedExecutionException
+     * when the job queue is full and UploadTooLargeException for an oversize upload.
+     */
+    public Job submit(InputStream body, BatchInput.Format format) throws IOException {
+        long now = System.currentTimeMillis();
+        String id = "JOB" + lastJobMillis.updateAndGet(last -> Math.max(now, last + 1));
+        Job job = new Job(id, format, now);
+
+        Path input = inputFile(id);
+        spool(body, input);
+        try (Reader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            BatchInput rows = new BatchInput(reader, format);
+            int total = 0;
+            while (rows.hasNext()) {
+                rows.next();
+                total++;
+            }
+            job.total = total;
+        }
+
+        checkpoint(job);
+        jobs.put(id, job);
+        try {
+            schedule(job);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(id);
+            Files.deleteIfExists(stateFile(id));
+            Files.deleteIfExists(input);
+            throw e;
+        }
+        return job;
+    }
+
+    private void spool(InputStream body, Path input) throws IOException {
+        try (OutputStream out = Files.newOutputStream(input, StandardOpenOption.CREATE_NEW)) {
+            byte[] buffer = new byte[1 << 16];
+            long length = 0;
+            for (int n; (n = body.read(buffer)) >= 0; ) {
+                length += n;
+                if (length > maxUploadBytes) {
+                    throw new UploadTooLargeException("Upload larger than " + maxUploadBytes + " bytes");
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(input);
+            throw e;
+        }
+    }
+
+    public Job get(String id) {
+        return jobs.get(id);
+    }
+
+    public Collection<Job> all() {
+        List<Job> list = new ArrayList<>(jobs.values());
+        list.sort(Comparator.comparing(j -> j.id));
+        return list;
+    }
+
+    /**
+     * Returns false if the job is unknown or already finished.
+     */
+    public boolean cancel(String id) throws IOException {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+        synchronized (job) {
+            if (job.state == State.QUEUED) {
+                job.state = State.CANCELLED;
+                job.finished = System.currentTimeMillis();
+                checkpoint(job);
+                return true;
+            }
+            if (job.state == State.RUNNING) {
+                job.cancelRequested = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Path resultsFile(String id) {
+        return dir.resolve(id + ".results");
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void schedule(Job job) {
+        scheduler.execute(() -> run(job));
+    }
+
+    private void run(Job job) {
+        synchronized (job) {
+            if (job.state != State.QUEUED) {
+                return;
+            }
+            job.state = State.RUNNING;
+            job.started = System.currentTimeMillis();
+            job.processedAtStart = job.processed;
+        }
+
+        Path results = resultsFile(job.id);
+        try (Reader reader = Files.newBufferedReader(inputFile(job.id), StandardCharsets.UTF_8);
+             FileChannel resultsChannel = FileChannel.open(results, StandardOpenOption.CREATE,
+                                                           StandardOpenOption.WRITE)) {
+            // Drop result lines written after the last checkpoint; those rows run again
+            resultsChannel.truncate(job.resultsLength);
+            resultsChannel.position(job.resultsLength);
+            JsonWriter out = new JsonWriter(Channels.newOutputStream(resultsChannel));
+
+            BatchInput input = new BatchInput(reader, job.format);
+            input.skip(job.processed);
+            Iterator<BatchInput.Row> rows = skipIssued(job, input, out);
+
+            BatchIssuer.Summary summary = issuer.run(rows, () -> job.cancelRequested, new BatchIssuer.Listener() {
+                public void rowDone(int row, CertificateRecord record, String error) throws IOException {
+                    writeResult(out, row, record != null ? record.id() : null, error);
+                    if (record != null) {
+                        job.issued++;
+                    } else {
+                        job.failed++;
+                    }
+                }
+
+                public void chunkReady(List<BatchInput.Row> chunk, CertificateRecord[] records) throws IOException {
+                    for (int i = 0; i < records.length; i++) {
+                        if (records[i] != null) {
+                            job.issuedAhead.put(chunk.get(i).number, records[i].id());
+                        }
+                    }
+                    writePending(job);
+                }
+
+                public void chunkCommitted(int lastRow) throws IOException {
+                    out.flush();
+                    resultsChannel.force(false);
+                    job.processed = lastRow;
+                    job.resultsLength = resultsChannel.position();
+                    checkpoint(job);
+                    job.issuedAhead.headMap(lastRow, true).clear();
+                    writePending(job);
+                }
+            });
+            out.flush();
+            if (!summary.cancelled) {
+                // Rows at the end may all have been issued before a restart, with no chunk after them
+                resultsChannel.force(false);
+                job.processed = job.total;
+                job.resultsLength = resultsChannel.position();
+            }
+            job.state = summary.cancelled ? State.CANCELLED : State.COMPLETED;
+        } catch (Exception e) {
+            // shutdownNow() usually lands in a results write or force, which closes the
+            // channel with ClosedByInterruptException rather than throwing InterruptedException
+            if (e instanceof InterruptedException || Thread.currentThread().isInterrupted()) {
+                // Server shutting down: the last chunk's checkpoint and pending IDs stay as
+                // they are on disk, so the next start resumes the job from there
+                job.state = State.QUEUED;
+                job.started = 0;
+                return;
+            }
+            e.printStackTrace();
+            job.error = e.getMessage() != null ? e.getMessage() : e.toString();
+            job.state = State.FAILED;
+        }
+        job.finished = System.currentTimeMillis();
+        try {
+            checkpoint(job);
+            job.issuedAhead.clear();
+            writePending(job);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reloads every job from its checkpoint and requeues the ones that had not finished.
+     */
+    private void resume() throws IOException {
+        List<Job> pending = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.job")) {
+            for (Path file : files) {
+                Job job = load(file);
+                jobs.put(job.id, job);
+                if (job.state == State.QUEUED || job.state == State.RUNNING) {
+                    job.state = State.QUEUED;
+                    loadPending(job);
+                    pending.add(job);
+                }
+            }
+        }
+        pending.sort(Comparator.comparing(j -> j.id));
+        for (Job job : pending) {
+            System.out.println("Resuming " + job.id + " at row " + (job.processed + 1) + " of " + job.total);
+            schedule(job);
+        }
+    }
+
+    /**
+     * The rows still to run, reporting rows already issued before a restart as issued
+     * instead of passing them on.
+     */
+    private static Iterator<BatchInput.Row> skipIssued(Job job, Iterator<BatchInput.Row> rows, JsonWriter out) {
+        if (job.issuedAhead.isEmpty()) {
+            return rows;
+        }
+        return new Iterator<BatchInput.Row>() {
+            private BatchInput.Row next;
+
+            public boolean hasNext() {
+                while (next == null && rows.hasNext()) {
+                    BatchInput.Row row = rows.next();
+                    String id = job.issuedAhead.get(row.number);
+                    if (id == null) {
+                        next = row;
+                        continue;
+                    }
+                    try {
+                        writeResult(out, row.number, id, null);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    job.issued++;
+                }
+                return next != null;
+            }
+
+            public BatchInput.Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                BatchInput.Row row = next;
+                next = null;
+                return row;
+            }
+        };
+    }
+
+    private static void writeResult(JsonWriter out, int row, String certId, String error) throws IOException {
+        out.beginObject().field("row", row);
+        if (certId != null) {
+            out.field("success", true).field("certificateId", certId).field("download", "/download?id=" + certId);
+        } else {
+            out.field("success", false).field("error", error);
+        }
+        out.endObject().newline();
+    }
+
+    /**
+     * Syncs the rows issued ahead of the checkpoint to disk, or removes the file if none are.
+     */
+    private void writePending(Job job) throws IOException {
+        Path target = pendingFile(job.id);
+        if (job.issuedAhead.isEmpty()) {
+            Files.deleteIfExists(target);
+            return;
+        }
+        Properties p = new Properties();
+        for (Map.Entry<Integer, String> entry : job.issuedAhead.entrySet()) {
+            p.setProperty(Integer.toString(entry.getKey()), entry.getValue());
+        }
+        writeSynced(p, target);
+    }
+
+    /**
+     * Reloads the rows a job issued after its last checkpoint: those whose ID reached the
+     * registry before the restart.
+     */
+    private void loadPending(Job job) throws IOException {
+        Path file = pendingFile(job.id);
+        if (!Files.exists(file)) {
+            return;
+        }
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            p.load(in);
+        }
+        for (String row : p.stringPropertyNames()) {
+            String certId = p.getProperty(row);
+            if (Integer.parseInt(row) > job.processed && issuer.registry().get(certId) != null) {
+                job.issuedAhead.put(Integer.parseInt(row), certId);
+            }
+        }
+        writePending(job);
+    }
+
+    private void checkpoint(Job job) throws IOException {
+        Properties p = new Properties();
+        p.setProperty("id", job.id);
+        p.setProperty("format", job.format.name());
+        p.setProperty("state", job.state.name());
+        p.setProperty("submitted", Long.toString(job.submitted));
+        p.setProperty("started", Long.toString(job.started));
+        p.setProperty("finished", Long.toString(job.finished));
+        p.setProperty("total", Integer.toString(job.total));
+        p.setProperty("processed", Integer.toString(job.processed));
+        p.setProperty("issued", Integer.toString(job.issued));
+        p.setProperty("failed", Integer.toString(job.failed));
+        p.setProperty("resultsLength", Long.toString(job.resultsLength));
+        if (job.error != null) {
+            p.setProperty("error", job.error);
+        }
+
+        writeSynced(p, stateFile(job.id));
+    }
+
+    private static void writeSynced(Properties p, Path target) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+            p.store(out, null);
+            out.getFD().sync();
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Job load(Path file) throws IOException {
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            p.load(in);
+        }
+        Job job = new Job(p.getProperty("id"), BatchInput.Format.valueOf(p.getProperty("format")),
+                          Long.parseLong(p.getProperty("submitted")));
+        job.state = State.valueOf(p.getProperty("state"));
+        job.started = Long.parseLong(p.getProperty("started"));
+        job.finished = Long.parseLong(p.getProperty("finished"));
+        job.total = Integer.parseInt(p.getProperty("total"));
+        job.processed = Integer.parseInt(p.getProperty("processed"));
+        job.issued = Integer.parseInt(p.getProperty("issued"));
+        job.failed = Integer.parseInt(p.getProperty("failed"));
+        job.resultsLength = Long.parseLong(p.getProperty("resultsLength"));
+        job.error = p.getProperty("error");
+        return job;
+    }
+
+    private Path inputFile(String id) {
+        return dir.resolve(id + ".input");
+    }
+
+    private Path stateFile(String id) {
+        return dir.resolve(id + ".job");
+    }
+
+    private Path pendingFile(String id) {
+        return dir.resolve(id + ".pending");
+    }
+}
@@ -0,0 +1,280 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes JSON straight to UTF-8 bytes, escaping strings as it copies them, so a
+ * response is built without intermediate Strings or a char-to-byte encoding pass.
+ * Commas between values are added automatically.
+ *
+ * Streaming writers flush to their stream whenever the buffer fills (used with chunked
+ * responses); a buffered writer keeps everything until send(), so the response gets
+ * an exact Content-Length and the connection stays reusable. Values written at the top
+ * level are not separated by commas, which suits newline-delimited JSON.
+ */
+public final class JsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private byte[] buffer;
+    private int length;
+    // Whether the array or object at each depth already has a value
+    private boolean[] hasValue = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter(OutputStream out) {
+        this.out = out;
+        this.buffer = new byte[8192];
+    }
+
+    private JsonWriter() {
+        this.out = null;
+        this.buffer = new byte[512];
+    }
+
+    /**
+     * A writer that keeps the whole document in memory until send().
+     */
+    public static JsonWriter buffered() {
+        return new JsonWriter();
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        put((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        string(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        ascii(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        ascii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * A number already formatted by the caller, e.g. with a fixed number of decimals.
+     */
+    public JsonWriter number(String formatted) throws IOException {
+        separate();
+        ascii(formatted);
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        separate();
+        ascii("null");
+        return this;
+    }
+
+    /**
+     * Ends a top-level value with a newline, for newline-delimited JSON.
+     */
+    public JsonWriter newline() throws IOException {
+        put((byte) '\n');
+        return this;
+    }
+
+    public JsonWriter field(String name, String value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, long value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, boolean value) throws IOException {
+        return name(name).value(value);
+    }
+
+    /**
+     * Writes out what is buffered; only for streaming writers.
+     */
+    public void flush() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+        out.flush();
+    }
+
+    /**
+     * The document written so far; only for buffered writers, such as answers that are
+     * built once and cached.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Sends a buffered document as the complete response.
+     */
+    public void send(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(buffer, 0, length);
+        }
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        put((byte) bracket);
+        if (++depth == hasValue.length) {
+            hasValue = Arrays.copyOf(hasValue, depth * 2);
+        }
+        hasValue[depth] = false;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        depth--;
+        put((byte) bracket);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasValue[depth]) {
+                put((byte) ',');
+            }
+            hasValue[depth] = true;
+        }
+    }
+
+    private void string(String s) throws IOException {
+        put((byte) '"');
+        int i = 0;
+        while (i < s.length()) {
+            // Plain ASCII is copied straight into the buffer, a run at a time
+            int run = Math.min(s.length() - i, room());
+            int end = i + run;
+            byte[] buf = buffer;
+            int pos = length;
+            for (; i < end; i++) {
+                char c = s.charAt(i);
+                if (c < 0x20 || c >= 0x80 || c == '"' || c == '\\') {
+                    break;
+                }
+                buf[pos++] = (byte) c;
+            }
+            length = pos;
+            if (i < end) {
+                i = special(s, i);
+            }
+        }
+        put((byte) '"');
+    }
+
+    /**
+     * Writes the character at i, which needs escaping or encoding, and returns the
+     * index of the next one.
+     */
+    private int special(String s, int i) throws IOException {
+        char c = s.charAt(i);
+        if (c == '"' || c == '\\') {
+            escape(c);
+        } else if (c == '\n') {
+            escape('n');
+        } else if (c == '\r') {
+            escape('r');
+        } else if (c == '\t') {
+            escape('t');
+        } else if (c < 0x20) {
+            escape('u');
+            ascii("00");
+            put(HEX[c >> 4]);
+            put(HEX[c & 0xf]);
+        } else if (c < 0x800) {
+            put((byte) (0xc0 | c >> 6));
+            put((byte) (0x80 | c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                   && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            put((byte) (0xf0 | cp >> 18));
+            put((byte) (0x80 | cp >> 12 & 0x3f));
+            put((byte) (0x80 | cp >> 6 & 0x3f));
+            put((byte) (0x80 | cp & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+            // Unpaired surrogate: not encodable, as in String.getBytes
+            put((byte) '?');
+        } else {
+            put((byte) (0xe0 | c >> 12));
+            put((byte) (0x80 | c >> 6 & 0x3f));
+            put((byte) (0x80 | c & 0x3f));
+        }
+        return i + 1;
+    }
+
+    private void escape(char c) throws IOException {
+        put((byte) '\\');
+        put((byte) c);
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            put((byte) s.charAt(i));
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (length == buffer.length) {
+            room();
+        }
+        buffer[length++] = b;
+    }
+
+    /**
+     * Free bytes in the buffer, making some first if it is full.
+     */
+    private int room() throws IOException {
+        if (length == buffer.length) {
+            if (out != null) {
+                out.write(buffer, 0, length);
+                length = 0;
+            } else {
+                buffer = Arrays.copyOf(buffer, length * 2);
+            }
+        }
+        return buffer.length - length;
+    }
+}
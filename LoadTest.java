@@ -0,0 +1,478 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load generator and soak test for a running WebServer: drives /generate, /download,
+ * /list and /revoke at fixed rates and reports latency percentiles, throughput and
+ * errors per endpoint, with the server's heap, GC and data growth alongside.
+ *
+ * The load is open-loop: requests are sent on a fixed schedule whether or not earlier
+ * ones have been answered, and each latency is measured from the time its request was
+ * due rather than when it was sent. A stalled server therefore shows up as the long
+ * latencies its users would see, instead of as a quietly lower request rate (the
+ * "coordinated omission" of closed-loop testers). Latencies go into a log-linear
+ * histogram with under 1% error, like HdrHistogram's with two significant digits.
+ *
+ * Start the server, then, from another terminal:
+ *
+ *   java -cp ".:lib/*" LoadTest
+ *
+ * Downloads pick from the newest certificates listed at startup plus those issued during
+ * the run; only certificates issued during the run are revoked. Results of the warmup
+ * are discarded. Every report interval prints the interval's figures; the end of the run
+ * prints the full percentile spectrum per endpoint.
+ *
+ * Tuned with load.url (default: http://localhost:8080), load.duration and load.warmup
+ * (seconds, default: 60 and 10), load.report (seconds between reports, default: 10),
+ * load.rate.generate, load.rate.download, load.rate.list and load.rate.revoke (requests
+ * per second, default: 5, 50, 10 and 1), load.maxInFlight (requests outstanding before
+ * further ones are dropped and counted, default: 10000), load.timeout (seconds,
+ * default: 30), load.seed (certificates listed at startup, default: 10000) and load.csv
+ * (file to append one line per endpoint and report to, for plotting soak runs).
+ */
+public class LoadTest {
+
+    private static final String[] NAMES = {"Ada Lovelace", "Alan Turing", "Grace Hopper", "Linus Torvalds",
+                                           "Barbara Liskov", "Edsger Dijkstra", "Margaret Hamilton", "Donald Knuth"};
+    private static final String[] TYPES = {"Course Completion", "Participation", "Achievement"};
+    private static final String[] COURSES = {"Java Programming", "Distributed Systems", "Compilers"};
+
+    private static final Pattern ID = Pattern.compile("\"(?:id|certificateId)\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern METRIC = Pattern.compile("^([a-z_]+)(?:\\{[^}]*\\})? (\\S+)$");
+
+    /**
+     * Request latencies in microseconds. Values below 256 have their own bucket; above,
+     * each power of two is split into 128 buckets, so a recorded value is off by less
+     * than 1/128. Recording is a lock-free increment.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BUCKETS = 128;
+        private static final long MAX_VALUE = (1L << 36) - 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+
+        void record(long micros) {
+            counts.incrementAndGet(index(Math.max(0, Math.min(micros, MAX_VALUE))));
+        }
+
+        long[] snapshot() {
+            long[] copy = new long[counts.length()];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = counts.get(i);
+            }
+            return copy;
+        }
+
+        static int index(long value) {
+            if (value < 2 * SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - 7;
+            return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        /**
+         * The largest value counted in a bucket.
+         */
+        static long highest(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+            int shift = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+            long sub = (index - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+            return ((sub + 1) << shift) - 1;
+        }
+
+        static long total(long[] counts) {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * The value below which the given percentage of a snapshot's values fall.
+         */
+        static long percentile(long[] counts, double percent) {
+            long total = total(counts);
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * percent / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highest(i);
+                }
+            }
+            return highest(counts.length - 1);
+        }
+
+        static long[] minus(long[] later, long[] earlier) {
+            long[] difference = new long[later.length];
+            for (int i = 0; i < later.length; i++) {
+                difference[i] = later[i] - earlier[i];
+            }
+            return difference;
+        }
+    }
+
+    /**
+     * One endpoint's schedule and results.
+     */
+    private final class Endpoint {
+        final String name;
+        final long intervalNanos;
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        long next;
+        long[] reported;
+        long reportedErrors;
+
+        Endpoint(String name, double rate) {
+            this.name = name;
+            this.intervalNanos = rate > 0 ? (long) (1e9 / rate) : Long.MAX_VALUE;
+            this.reported = latencies.snapshot();
+        }
+
+        /**
+         * The request due now, or null if there is nothing to send.
+         */
+        HttpRequest request() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            switch (name) {
+                case "generate":
+                    String form = "name=" + encode(NAMES[random.nextInt(NAMES.length)])
+                                  + "&certType=" + encode(TYPES[random.nextInt(TYPES.length)])
+                                  + "&courseName=" + encode(COURSES[random.nextInt(COURSES.length)])
+                                  + "&date=2025-06-01&instructor=" + encode("Dr. Smith") + "&hours=40";
+                    return post("/generate", form);
+                case "download":
+                    String id = anyId();
+                    return id == null ? null : get("/download?id=" + encode(id));
+                case "list":
+                    return get("/list?limit=50&order=desc");
+                case "revoke":
+                    String revocable = issued.poll();
+                    return revocable == null ? null : post("/revoke", "id=" + encode(revocable));
+                default:
+                    throw new IllegalStateException(name);
+            }
+        }
+
+        void send(long due) {
+            HttpRequest request = request();
+            if (request == null) {
+                skipped.increment();
+                return;
+            }
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                dropped.increment();
+                return;
+            }
+            boolean generate = name.equals("generate");
+            CompletableFuture<? extends HttpResponse<?>> response = generate
+                    ? client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    : client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+            response.whenComplete((answer, failure) -> {
+                long micros = (System.nanoTime() - due) / 1000;
+                inFlight.decrementAndGet();
+                boolean failed = failure != null || answer.statusCode() >= 400;
+                if (!failed && generate) {
+                    Matcher m = ID.matcher((String) answer.body());
+                    if (m.find()) {
+                        addId(m.group(1));
+                        issued.add(m.group(1));
+                    }
+                }
+                if (due >= measureFrom) {
+                    latencies.record(micros);
+                    if (failed) {
+                        errors.increment();
+                    }
+                }
+            });
+        }
+    }
+
+    private final String baseUrl;
+    private final int maxInFlight;
+    private final Duration timeout;
+    private final HttpClient client;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<String> issued = new ConcurrentLinkedQueue<>();
+    private final Object idLock = new Object();
+    private String[] ids = new String[1024];
+    private int idCount;
+    private volatile long measureFrom = Long.MAX_VALUE;
+    private PrintWriter csv;
+
+    public LoadTest(String baseUrl, int maxInFlight, Duration timeout) {
+        this.baseUrl = baseUrl.replaceAll("/+$", "");
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                                .connectTimeout(Duration.ofSeconds(10)).build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest(System.getProperty("load.url", "http://localhost:8080"),
+                Integer.getInteger("load.maxInFlight", 10_000), Duration.ofSeconds(Long.getLong("load.timeout", 30)));
+        test.endpoint("generate", 5);
+        test.endpoint("download", 50);
+        test.endpoint("list", 10);
+        test.endpoint("revoke", 1);
+        String csv = System.getProperty("load.csv");
+        if (csv != null) {
+            boolean fresh = !Files.exists(Path.of(csv));
+            test.csv = new PrintWriter(Files.newBufferedWriter(Path.of(csv), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), true);
+            if (fresh) {
+                test.csv.println("elapsed_s,endpoint,requests,errors,p50_ms,p90_ms,p99_ms,p999_ms,max_ms,"
+                                 + "heap_used_mb,gc_collections,gc_seconds,certificates,ledger_mb");
+            }
+        }
+        test.seed(Integer.getInteger("load.seed", 10_000));
+        test.run(Long.getLong("load.warmup", 10), Long.getLong("load.duration", 60), Long.getLong("load.report", 10));
+        if (test.csv != null) {
+            test.csv.close();
+        }
+    }
+
+    private void endpoint(String name, double defaultRate) {
+        String rate = System.getProperty("load.rate." + name);
+        double perSecond = rate != null ? Double.parseDouble(rate) : defaultRate;
+        if (perSecond > 0) {
+            endpoints.add(new Endpoint(name, perSecond));
+        }
+    }
+
+    /**
+     * Lists the newest certificates, for downloads to pick from.
+     */
+    private void seed(int count) throws IOException, InterruptedException {
+        if (count <= 0) {
+            return;
+        }
+        HttpResponse<String> response = client.send(get("/list?order=desc&limit=" + count),
+                                                     HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("GET /list answered " + response.statusCode());
+        }
+        Matcher m = ID.matcher(response.body());
+        while (m.find()) {
+            addId(m.group(1));
+        }
+        System.out.printf("%d certificates available for download%n", idCount);
+    }
+
+    private void run(long warmupSeconds, long durationSeconds, long reportSeconds) throws Exception {
+        long start = System.nanoTime();
+        measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long reportEvery = TimeUnit.SECONDS.toNanos(Math.max(1, reportSeconds));
+        long nextReport = measureFrom + reportEvery;
+        long lastReport = measureFrom;
+        for (Endpoint endpoint : endpoints) {
+            // Spread the first requests so the endpoints' schedules do not line up
+            endpoint.next = start + (long) (ThreadLocalRandom.current().nextDouble() * Math.min(endpoint.intervalNanos, 1e9));
+        }
+        System.out.printf("Warming up for %d s, then measuring for %d s%n", warmupSeconds, durationSeconds);
+
+        Map<String, Double> server = serverMetrics();
+        while (true) {
+            Endpoint due = null;
+            for (Endpoint endpoint : endpoints) {
+                if (due == null || endpoint.next < due.next) {
+                    due = endpoint;
+                }
+            }
+            long at = due == null ? end : Math.min(due.next, Math.min(nextReport, end));
+            long now;
+            while ((now = System.nanoTime()) < at) {
+                LockSupport.parkNanos(at - now);
+            }
+            if (now >= end) {
+                break;
+            }
+            if (now >= nextReport) {
+                server = report(server, (nextReport - measureFrom) / 1_000_000_000L, reportEvery);
+                lastReport = nextReport;
+                nextReport += reportEvery;
+                continue;
+            }
+            // A late scheduler still sends every request it owes, each timed from when it was due
+            due.send(due.next);
+            due.next += due.intervalNanos;
+        }
+
+        long drainUntil = System.nanoTime() + timeout.toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(10);
+        }
+        report(server, durationSeconds, end - lastReport);
+        summary(durationSeconds);
+    }
+
+    /**
+     * Prints the figures since the last report, and returns the server metrics read for it.
+     */
+    private Map<String, Double> report(Map<String, Double> before, long elapsedSeconds, long intervalNanos) {
+        Map<String, Double> after = serverMetrics();
+        double seconds = Math.max(1e-9, intervalNanos / 1e9);
+        System.out.printf("%n[%5d s] %-10s %10s %10s %8s %9s %9s %9s %9s %9s%n", elapsedSeconds, "endpoint",
+                          "requests", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Endpoint endpoint : endpoints) {
+            long[] now = endpoint.latencies.snapshot();
+            long[] interval = LatencyHistogram.minus(now, endpoint.reported);
+            long errors = endpoint.errors.sum();
+            long requests = LatencyHistogram.total(interval);
+            System.out.printf("          %-10s %10d %10.1f %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n", endpoint.name,
+                              requests, requests / seconds, errors - endpoint.reportedErrors,
+                              millis(interval, 50), millis(interval, 90), millis(interval, 99),
+                              millis(interval, 99.9), millis(interval, 100));
+            if (csv != null) {
+                csv.printf(Locale.ROOT, "%d,%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%s%n", elapsedSeconds, endpoint.name,
+                           requests, errors - endpoint.reportedErrors, millis(interval, 50), millis(interval, 90),
+                           millis(interval, 99), millis(interval, 99.9), millis(interval, 100), csvServer(after));
+            }
+            endpoint.reported = now;
+            endpoint.reportedErrors = errors;
+        }
+        if (after.isEmpty()) {
+            System.out.println("          server     (no /metrics)");
+        } else {
+            System.out.printf("          server     heap %.0f of %.0f MB, %.0f GCs (+%.0f) taking %.2f s (+%.2f s), "
+                              + "%.0f certificates, ledger %.1f MB, %d requests in flight%n",
+                              after.getOrDefault("jvm_memory_used_bytes", 0.0) / (1 << 20),
+                              after.getOrDefault("jvm_memory_max_bytes", 0.0) / (1 << 20),
+                              after.getOrDefault("jvm_gc_collections", 0.0),
+                              after.getOrDefault("jvm_gc_collections", 0.0) - before.getOrDefault("jvm_gc_collections", 0.0),
+                              after.getOrDefault("jvm_gc_collection_seconds", 0.0),
+                              after.getOrDefault("jvm_gc_collection_seconds", 0.0)
+                              - before.getOrDefault("jvm_gc_collection_seconds", 0.0),
+                              after.getOrDefault("cert_registry_certificates", 0.0),
+                              after.getOrDefault("cert_ledger_bytes", 0.0) / (1 << 20), inFlight.get());
+        }
+        return after;
+    }
+
+    private void summary(long durationSeconds) {
+        double[] percents = {50, 75, 90, 99, 99.9, 99.99, 100};
+        System.out.printf("%nSummary over %d s, latencies in ms%n%-10s %10s %10s %8s %8s %8s %9s %9s %9s %9s %9s %9s %9s%n",
+                          durationSeconds, "endpoint", "requests", "req/s", "errors", "dropped", "skipped",
+                          "p50", "p75", "p90", "p99", "p99.9", "p99.99", "max");
+        for (Endpoint endpoint : endpoints) {
+            long[] all = endpoint.latencies.snapshot();
+            long requests = LatencyHistogram.total(all);
+            System.out.printf("%-10s %10d %10.1f %8d %8d %8d", endpoint.name, requests,
+                              (double) requests / Math.max(1, durationSeconds), endpoint.errors.sum(),
+                              endpoint.dropped.sum(), endpoint.skipped.sum());
+            for (double percent : percents) {
+                System.out.printf(" %9.2f", millis(all, percent));
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * Heap, GC and registry figures from the server's /metrics, summed over labels; empty
+     * if the server cannot be reached.
+     */
+    private Map<String, Double> serverMetrics() {
+        Map<String, Double> values = new HashMap<>();
+        try {
+            HttpResponse<String> response = client.send(get("/metrics"), HttpResponse.BodyHandlers.ofString());
+            for (String line : response.body().split("\n")) {
+                Matcher m = METRIC.matcher(line);
+                if (m.matches() && (m.group(1).startsWith("jvm_") || m.group(1).equals("cert_registry_certificates")
+                                    || m.group(1).equals("cert_ledger_bytes"))) {
+                    values.merge(m.group(1), Double.parseDouble(m.group(2)), Double::sum);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            values.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return values;
+    }
+
+    private static String csvServer(Map<String, Double> server) {
+        if (server.isEmpty()) {
+            return ",,,,";
+        }
+        return String.format(Locale.ROOT, "%.1f,%.0f,%.3f,%.0f,%.2f",
+                             server.getOrDefault("jvm_memory_used_bytes", 0.0) / (1 << 20),
+                             server.getOrDefault("jvm_gc_collections", 0.0),
+                             server.getOrDefault("jvm_gc_collection_seconds", 0.0),
+                             server.getOrDefault("cert_registry_certificates", 0.0),
+                             server.getOrDefault("cert_ledger_bytes", 0.0) / (1 << 20));
+    }
+
+    private static double millis(long[] counts, double percent) {
+        return LatencyHistogram.percentile(counts, percent) / 1000.0;
+    }
+
+    private void addId(String id) {
+        synchronized (idLock) {
+            if (idCount == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+            ids[idCount++] = id;
+        }
+    }
+
+    private String anyId() {
+        synchronized (idLock) {
+            return idCount == 0 ? null : ids[ThreadLocalRandom.current().nextInt(idCount)];
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(timeout).GET().build();
+    }
+
+    private HttpRequest post(String path, String form) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(timeout)
+                          .header("Content-Type", "application/x-www-form-urlencoded")
+                          .POST(HttpRequest.BodyPublishers.ofString(form)).build();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
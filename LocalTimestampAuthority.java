@@ -0,0 +1,81 @@
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TSPAlgorithms;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampRequestGenerator;
+import org.bouncycastle.tsp.TimeStampTokenGenerator;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * In-process stand-in for a timestamp authority, for trying out and load testing the
+ * signing pipeline without an external TSA. Tokens are well-formed RFC 3161 tokens, but
+ * they are signed with an EC key generated at startup and certified by itself, so no
+ * verifier will trust them; point cert.sign.tsa at a real TimestampAuthority in production.
+ */
+public class LocalTimestampAuthority implements TimestampAuthority {
+
+    // Placeholder policy OID under the "example" arc
+    private static final ASN1ObjectIdentifier POLICY = new ASN1ObjectIdentifier("1.3.6.1.4.1.32473.1");
+
+    private final TimeStampTokenGenerator tokens;
+    private final TimeStampRequestGenerator requests = new TimeStampRequestGenerator();
+    private long serial = System.currentTimeMillis() << 16;
+
+    public LocalTimestampAuthority() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keys = generator.generateKeyPair();
+
+        X500Name subject = new X500Name("CN=Local Timestamp Authority");
+        long now = System.currentTimeMillis();
+        X509CertificateHolder certificate = new JcaX509v3CertificateBuilder(subject, BigInteger.valueOf(now),
+                new Date(now - 60_000), new Date(now + 3650L * 24 * 3600 * 1000), subject, keys.getPublic())
+                .addExtension(Extension.basicConstraints, true, new BasicConstraints(false))
+                // RFC 3161 requires the TSA certificate to be usable for timestamping only
+                .addExtension(Extension.extendedKeyUsage, true, new ExtendedKeyUsage(KeyPurposeId.id_kp_timeStamping))
+                .build(new JcaContentSignerBuilder("SHA256withECDSA").build(keys.getPrivate()));
+
+        AlgorithmIdentifier sha256 = new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256);
+        tokens = new TimeStampTokenGenerator(
+                new JcaSimpleSignerInfoGeneratorBuilder().build("SHA256withECDSA", keys.getPrivate(), certificate),
+                new JcaDigestCalculatorProviderBuilder().build().get(sha256), POLICY);
+        tokens.addCertificates(new JcaCertStore(List.of(certificate)));
+        // Ask for the TSA certificate in each token, so tokens can be checked on their own
+        requests.setCertReq(true);
+    }
+
+    @Override
+    public synchronized List<byte[]> timestamp(List<byte[]> imprints) throws IOException {
+        List<byte[]> issued = new ArrayList<>(imprints.size());
+        Date now = new Date();
+        try {
+            for (byte[] imprint : imprints) {
+                TimeStampRequest request = requests.generate(TSPAlgorithms.SHA256, imprint);
+                issued.add(tokens.generate(request, BigInteger.valueOf(serial++), now).getEncoded());
+            }
+        } catch (Exception e) {
+            throw e instanceof IOException ? (IOException) e : new IOException("Cannot issue timestamp", e);
+        }
+        return issued;
+    }
+}
@@ -0,0 +1,287 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide counters, gauges and latency histograms, written out by /metrics in the
+ * Prometheus text format.
+ *
+ * Recording never takes a lock: counters and histogram buckets are LongAdders, which
+ * spread concurrent increments over per-thread cells. Callers look a metric up once and
+ * keep it; gauges are read only when the metrics are scraped.
+ *
+ * The HTTP and rendering paths also emit JFR events (cert.HttpRequest, cert.Render),
+ * which cost nothing unless a recording is running, e.g.
+ *
+ *   java -XX:StartFlightRecording=filename=cert.jfr,settings=profile ... WebServer
+ */
+public final class Metrics {
+
+    // Seconds; suits everything from a cached /verify answer to a slow batch upload
+    private static final double[] LATENCY_BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+                                                     0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final Map<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long value() {
+            return value.sum();
+        }
+    }
+
+    public static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observeNanos(long nanos) {
+            double seconds = nanos / 1e9;
+            int i = 0;
+            while (i < LATENCY_BUCKETS.length && seconds > LATENCY_BUCKETS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * Records the time since a System.nanoTime() reading and returns the elapsed nanos.
+         */
+        public long observeSince(long startNanos) {
+            long nanos = System.nanoTime() - startNanos;
+            observeNanos(nanos);
+            return nanos;
+        }
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final Map<String, Object> children = new ConcurrentSkipListMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) child(name, help, "counter", labels, Counter::new);
+    }
+
+    public static Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) child(name, help, "histogram", labels, Histogram::new);
+    }
+
+    /**
+     * Hits or misses of one cache; the hit ratio is hit / (hit + miss).
+     */
+    public static Counter cacheLookups(String cache, String result) {
+        return counter("cert_cache_lookups_total", "Cache lookups by cache and outcome",
+                       "cache", cache, "result", result);
+    }
+
+    /**
+     * Registers a value read at scrape time; registering the same series again replaces it.
+     */
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        Family family = FAMILIES.computeIfAbsent(name, n -> new Family(n, help, "gauge"));
+        family.children.put(labels(labels), value);
+    }
+
+    private static Object child(String name, String help, String type, String[] labels,
+                                Supplier<Object> factory) {
+        Family family = FAMILIES.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        String key = labels(labels);
+        Object metric = family.children.get(key);
+        return metric != null ? metric : family.children.computeIfAbsent(key, k -> factory.get());
+    }
+
+    /**
+     * Label pairs as name="value",... (without braces).
+     */
+    private static String labels(String[] pairs) {
+        if (pairs.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(pairs[i]).append("=\"").append(pairs[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")
+                                                                  .replace("\n", "\\n")).append('"');
+        }
+        return sb.toString();
+    }
+
+    public static void write(Writer out) throws IOException {
+        for (Family family : FAMILIES.values()) {
+            out.write("# HELP " + family.name + " " + family.help + "\n");
+            out.write("# TYPE " + family.name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                String labels = child.getKey();
+                Object metric = child.getValue();
+                if (metric instanceof Counter) {
+                    sample(out, family.name, labels, null, ((Counter) metric).value());
+                } else if (metric instanceof DoubleSupplier) {
+                    sample(out, family.name, labels, null, ((DoubleSupplier) metric).getAsDouble());
+                } else {
+                    Histogram histogram = (Histogram) metric;
+                    long cumulative = 0;
+                    for (int i = 0; i < histogram.buckets.length; i++) {
+                        cumulative += histogram.buckets[i].sum();
+                        String le = i < LATENCY_BUCKETS.length
+                                ? BigDecimal.valueOf(LATENCY_BUCKETS[i]).toPlainString() : "+Inf";
+                        sample(out, family.name + "_bucket", labels, "le=\"" + le + "\"", cumulative);
+                    }
+                    sample(out, family.name + "_sum", labels, null, histogram.sumNanos.sum() / 1e9);
+                    sample(out, family.name + "_count", labels, null, cumulative);
+                }
+            }
+        }
+    }
+
+    private static void sample(Writer out, String name, String labels, String extra, double value)
+            throws IOException {
+        out.write(name);
+        if (!labels.isEmpty() || extra != null) {
+            out.write('{');
+            out.write(labels);
+            if (extra != null) {
+                out.write(labels.isEmpty() ? extra : "," + extra);
+            }
+            out.write('}');
+        }
+        out.write(' ');
+        out.write(format(value));
+        out.write('\n');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Per-endpoint request metrics, created once per context and kept by its handler.
+     */
+    public static final class Endpoint {
+        private final String path;
+        private final Histogram latency;
+        private final Counter bytes;
+        private final Counter errors;
+        private final Map<Integer, Counter> byStatus = new ConcurrentHashMap<>();
+
+        public Endpoint(String path) {
+            this.path = path;
+            this.latency = histogram("cert_http_request_duration_seconds",
+                    "Time from accepting a request to finishing its response, queueing included",
+                    "endpoint", path);
+            this.bytes = counter("cert_http_response_bytes_total", "Response body bytes sent", "endpoint", path);
+            this.errors = counter("cert_http_exceptions_total", "Requests whose handler threw", "endpoint", path);
+        }
+
+        public String path() {
+            return path;
+        }
+
+        public void completed(int status, long startNanos, long responseBytes) {
+            latency.observeSince(startNanos);
+            bytes.add(responseBytes);
+            Counter counter = byStatus.get(status);
+            if (counter == null) {
+                counter = byStatus.computeIfAbsent(status, code -> counter("cert_http_requests_total",
+                        "HTTP requests by endpoint and status", "endpoint", path, "code", String.valueOf(code)));
+            }
+            counter.inc();
+        }
+
+        public void failed() {
+            errors.inc();
+        }
+    }
+
+    @Name("cert.HttpRequest")
+    @Label("HTTP Request")
+    @Category("Certificates")
+    @Description("One request handled by the certificate server, queueing included")
+    static final class RequestEvent extends Event {
+        @Label("Endpoint")
+        String endpoint;
+
+        @Label("Method")
+        String method;
+
+        @Label("Status")
+        int status;
+
+        @Label("Response Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("cert.Render")
+    @Label("Certificate Render")
+    @Category("Certificates")
+    @Description("Rendering one certificate PDF, split into its stages")
+    static final class RenderEvent extends Event {
+        @Label("Certificate ID")
+        String certificateId;
+
+        @Label("Layout")
+        @Timespan
+        long layoutNanos;
+
+        @Label("QR Code")
+        @Timespan
+        long qrNanos;
+
+        @Label("PDF Write")
+        @Timespan
+        long pdfNanos;
+
+        @Label("PDF Bytes")
+        @DataAmount
+        long bytes;
+    }
+}
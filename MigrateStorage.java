@@ -0,0 +1,59 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves stored certificate PDFs from one storage layout to another, for example:
+ *
+ *   java -cp ".:lib/*" MigrateStorage flat sharded
+ *   java -cp ".:lib/*" MigrateStorage sharded packed certificates
+ *
+ * Each PDF is written to the new layout before it is removed from the old one, so the
+ * migration can be stopped and rerun at any point. Between flat and sharded the server
+ * can keep running on the new layout meanwhile, with cert.store.legacyLayout naming the
+ * old one so PDFs not moved yet are still served. A packed store is locked by the
+ * process that opens it, so migrations from or to packed run only while the server is
+ * stopped, and are refused otherwise.
+ */
+public class MigrateStorage {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args[0].equalsIgnoreCase(args[1])) {
+            System.err.println("Usage: MigrateStorage <flat|sharded|packed> <flat|sharded|packed> [dir]");
+            System.exit(2);
+        }
+        Path dir = Path.of(args.length > 2 ? args[2] : System.getProperty("cert.store.dir", "certificates"));
+        long segmentBytes = Long.getLong("cert.store.segmentBytes", 256L << 20);
+
+        try (CertificateStore from = CertificateStore.open(args[0], dir, segmentBytes, null);
+             CertificateStore to = CertificateStore.open(args[1], dir, segmentBytes, null)) {
+            List<String> ids = new ArrayList<>();
+            from.scan(entry -> ids.add(entry.id()));
+            System.out.println("Migrating " + ids.size() + " certificates from " + args[0] + " to " + args[1]);
+
+            long start = System.currentTimeMillis();
+            int moved = 0;
+            for (String id : ids) {
+                byte[] pdf;
+                try (CertificateStore.Blob blob = from.open(id)) {
+                    if (blob == null) {
+                        continue;
+                    }
+                    pdf = blob.readAll();
+                }
+                to.put(id, pdf);
+                from.delete(id);
+                if (++moved % 10_000 == 0) {
+                    System.out.printf("  %d/%d (%d/s)%n", moved, ids.size(),
+                                      moved * 1000L / Math.max(1, System.currentTimeMillis() - start));
+                }
+            }
+            System.out.println("Migrated " + moved + " certificates in " +
+                               (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Migration failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
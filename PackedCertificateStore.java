@@ -0,0 +1,331 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Packs many PDFs into large append-only segment files (segment-000001.pack), so a
+ * million certificates are a few hundred files instead of a million.
+ *
+ * Each PDF is written as [magic][id length][id][pdf length][crc32][pdf]. Next to each
+ * segment an .idx file lists (id, offset, length) for every PDF in it, and a length
+ * of -1 marks a deleted one. At startup the index files are loaded into memory; any
+ * PDFs appended after the last index entry (a crash between the two writes) are
+ * recovered by scanning the segment tail, and torn final entries are cut off. A PDF's
+ * data is forced to disk before its index entry is written, so an index entry never
+ * points at bytes a crash lost.
+ *
+ * Deleted PDFs keep their space in the segment; reads are positional, so any number of
+ * downloads share a segment's channel. Segments and indexes are appended to by one
+ * process only: opening the store takes a lock on store.lock in its directory and fails
+ * while another process (a server or MigrateStorage) holds it.
+ */
+public class PackedCertificateStore implements CertificateStore {
+
+    private static final int MAGIC = 0x43504B31; // "CPK1"
+
+    private static final class Location {
+        final int segment;
+        final long offset;
+        final int length;
+
+        Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final Map<Integer, FileChannel> segments = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private final FileChannel lockFile;
+    private int active;
+    private FileChannel activeIndex;
+    private long activeEnd;
+
+    public PackedCertificateStore(Path dir, long segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = Math.max(1 << 20, segmentBytes);
+        Files.createDirectories(dir);
+        this.lockFile = lock(dir.resolve("store.lock"));
+
+        List<Integer> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "segment-*.pack")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Integer.parseInt(name.substring("segment-".length(), name.length() - ".pack".length())));
+            }
+        }
+        numbers.sort(null);
+        for (int number : numbers) {
+            load(number);
+        }
+        openSegment(numbers.isEmpty() ? 1 : numbers.get(numbers.size() - 1));
+    }
+
+    @Override
+    public void put(String certId, byte[] pdf) throws IOException {
+        byte[] id = certId.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(pdf);
+        ByteBuffer header = ByteBuffer.allocate(4 + 2 + id.length + 4 + 4);
+        header.putInt(MAGIC).putShort((short) id.length).put(id).putInt(pdf.length).putInt((int) crc.getValue());
+        header.flip();
+
+        synchronized (writeLock) {
+            if (activeEnd > 0 && activeEnd + header.remaining() + pdf.length > segmentBytes) {
+                openSegment(active + 1);
+            }
+            FileChannel segment = segments.get(active);
+            long offset = activeEnd + header.remaining();
+            writeFully(segment, new ByteBuffer[] {header, ByteBuffer.wrap(pdf)}, activeEnd);
+            activeEnd = offset + pdf.length;
+            // The index must never reach the disk ahead of the data it points at
+            segment.force(false);
+            appendIndex(certId, offset, pdf.length);
+            index.put(certId, new Location(active, offset, pdf.length));
+        }
+    }
+
+    @Override
+    public Blob open(String certId) {
+        Location location = index.get(certId);
+        if (location == null) {
+            return null;
+        }
+        return new Blob(segments.get(location.segment), location.offset, location.length, false);
+    }
+
+    @Override
+    public boolean delete(String certId) throws IOException {
+        synchronized (writeLock) {
+            if (index.remove(certId) == null) {
+                return false;
+            }
+            appendIndex(certId, 0, -1);
+            return true;
+        }
+    }
+
+    /**
+     * Reports each PDF's segment modification time as its last access, as reads are not
+     * tracked; PDFs in older segments come first.
+     */
+    @Override
+    public void scan(Visitor visitor) throws IOException {
+        Map<Integer, Long> modified = new HashMap<>();
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            Location location = entry.getValue();
+            long time = modified.computeIfAbsent(location.segment, number -> {
+                try {
+                    return Files.getLastModifiedTime(segmentFile(number)).toMillis();
+                } catch (IOException e) {
+                    return 0L;
+                }
+            });
+            visitor.visit(new Entry(entry.getKey(), location.length, time));
+        }
+    }
+
+    @Override
+    public boolean reclaimsSpace() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            activeIndex.force(false);
+            activeIndex.close();
+            for (FileChannel channel : segments.values()) {
+                channel.force(false);
+                channel.close();
+            }
+            lockFile.close();
+        }
+    }
+
+    /**
+     * Holds an exclusive lock on the file until the returned channel is closed.
+     */
+    private static FileChannel lock(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Packed store " + file.getParent() + " is in use by another process");
+        }
+        return channel;
+    }
+
+    private void openSegment(int number) throws IOException {
+        if (activeIndex != null) {
+            activeIndex.force(false);
+            activeIndex.close();
+            segments.get(active).force(false);
+        }
+        FileChannel segment = segments.get(number);
+        if (segment == null) {
+            segment = FileChannel.open(segmentFile(number), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+            segments.put(number, segment);
+        }
+        active = number;
+        activeEnd = segment.size();
+        activeIndex = FileChannel.open(indexFile(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Loads a segment's index, then recovers entries written after the last indexed one.
+     */
+    private void load(int number) throws IOException {
+        FileChannel segment = FileChannel.open(segmentFile(number), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.put(number, segment);
+
+        long indexedEnd = 0;
+        Path idx = indexFile(number);
+        if (Files.exists(idx)) {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(idx));
+            int complete = 0;
+            while (data.remaining() >= 2) {
+                int idLength = data.getShort() & 0xffff;
+                if (data.remaining() < idLength + 12) {
+                    break;
+                }
+                byte[] id = new byte[idLength];
+                data.get(id);
+                long offset = data.getLong();
+                int length = data.getInt();
+                String certId = new String(id, StandardCharsets.UTF_8);
+                if (length < 0) {
+                    index.remove(certId);
+                } else {
+                    index.put(certId, new Location(number, offset, length));
+                    indexedEnd = Math.max(indexedEnd, offset + length);
+                }
+                complete = data.position();
+            }
+            if (complete < data.capacity()) {
+                try (FileChannel idxChannel = FileChannel.open(idx, StandardOpenOption.WRITE)) {
+                    idxChannel.truncate(complete);
+                }
+            }
+        }
+
+        // Entries past the index were written but not indexed before a crash
+        long position = indexedEnd;
+        long size = segment.size();
+        List<Object[]> recovered = new ArrayList<>();
+        ByteBuffer fixed = ByteBuffer.allocate(6);
+        while (position + 6 <= size) {
+            fixed.clear();
+            readFully(segment, fixed, position);
+            fixed.flip();
+            if (fixed.getInt() != MAGIC) {
+                break;
+            }
+            int idLength = fixed.getShort() & 0xffff;
+            ByteBuffer rest = ByteBuffer.allocate(idLength + 8);
+            if (position + 6 + rest.capacity() > size) {
+                break;
+            }
+            readFully(segment, rest, position + 6);
+            rest.flip();
+            byte[] id = new byte[idLength];
+            rest.get(id);
+            int length = rest.getInt();
+            int expectedCrc = rest.getInt();
+            long offset = position + 6 + idLength + 8;
+            if (length < 0 || offset + length > size) {
+                break;
+            }
+            ByteBuffer pdf = ByteBuffer.allocate(length);
+            readFully(segment, pdf, offset);
+            CRC32 crc = new CRC32();
+            crc.update(pdf.array());
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            String certId = new String(id, StandardCharsets.UTF_8);
+            index.put(certId, new Location(number, offset, length));
+            recovered.add(new Object[] {certId, offset, length});
+            position = offset + length;
+        }
+        if (position < size) {
+            segment.truncate(position);
+        }
+        if (!recovered.isEmpty()) {
+            try (FileChannel idxChannel = FileChannel.open(idx, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                           StandardOpenOption.APPEND)) {
+                for (Object[] entry : recovered) {
+                    ByteBuffer record = indexRecord((String) entry[0], (Long) entry[1], (Integer) entry[2]);
+                    while (record.hasRemaining()) {
+                        idxChannel.write(record);
+                    }
+                }
+            }
+        }
+    }
+
+    private void appendIndex(String certId, long offset, int length) throws IOException {
+        ByteBuffer record = indexRecord(certId, offset, length);
+        while (record.hasRemaining()) {
+            activeIndex.write(record);
+        }
+    }
+
+    private static ByteBuffer indexRecord(String certId, long offset, int length) {
+        byte[] id = certId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(2 + id.length + 8 + 4);
+        record.putShort((short) id.length).put(id).putLong(offset).putInt(length);
+        record.flip();
+        return record;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers, long position) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+            position += read;
+        }
+    }
+
+    private Path segmentFile(int number) {
+        return dir.resolve(String.format("segment-%06d.pack", number));
+    }
+
+    private Path indexFile(int number) {
+        return dir.resolve(String.format("segment-%06d.idx", number));
+    }
+}
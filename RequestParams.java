@@ -0,0 +1,290 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Request parameters from the query string and, for request bodies, from a form
+ * (application/x-www-form-urlencoded) or a flat JSON object, decoded in a single pass
+ * over the raw bytes. Percent-decoding and JSON unescaping write into a per-thread
+ * buffer that is reused across requests, so a parameter costs one String for its name
+ * and one for its value.
+ *
+ * Later occurrences of a name replace earlier ones, and body parameters replace query
+ * parameters. Malformed percent escapes are kept as they are.
+ */
+public final class RequestParams {
+
+    public static final int MAX_BODY = 1 << 20;
+
+    private static final ThreadLocal<byte[][]> BUFFERS =
+            ThreadLocal.withInitial(() -> new byte[][] {new byte[8192], new byte[256]});
+
+    private RequestParams() {
+    }
+
+    /**
+     * Thrown for a body that is too large or is not a flat JSON object.
+     */
+    public static final class InvalidRequestException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        InvalidRequestException(String message) {
+            super(message);
+        }
+    }
+
+    public static Map<String, String> query(HttpExchange exchange) {
+        return parseQuery(exchange.getRequestURI().getRawQuery());
+    }
+
+    /**
+     * Query parameters plus those in the body, which is read completely so the
+     * connection can carry the next request.
+     */
+    public static Map<String, String> all(HttpExchange exchange) throws IOException {
+        Map<String, String> params = query(exchange);
+        byte[][] buffers = BUFFERS.get();
+        int length = readBody(exchange.getRequestBody(), buffers);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("application/json")) {
+            parseJson(buffers[0], length, buffers, params);
+        } else {
+            parseForm(buffers[0], 0, length, buffers, params);
+        }
+        return params;
+    }
+
+    /**
+     * Parses one flat JSON object, such as a line of NDJSON, with the same rules as a
+     * JSON request body.
+     */
+    public static Map<String, String> parseJson(String json) throws InvalidRequestException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        Map<String, String> params = new HashMap<>();
+        parseJson(bytes, bytes.length, BUFFERS.get(), params);
+        return params;
+    }
+
+    public static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query != null && !query.isEmpty()) {
+            // Raw queries are ASCII; anything else was sent unencoded and is kept as UTF-8
+            byte[] bytes = query.getBytes(StandardCharsets.UTF_8);
+            parseForm(bytes, 0, bytes.length, BUFFERS.get(), params);
+        }
+        return params;
+    }
+
+    private static int readBody(InputStream in, byte[][] buffers) throws IOException {
+        int length = 0;
+        while (true) {
+            if (length == buffers[0].length) {
+                if (length == MAX_BODY) {
+                    // A body of exactly MAX_BODY bytes is fine; one more byte is not
+                    if (in.read() < 0) {
+                        return length;
+                    }
+                    throw new InvalidRequestException("Request body too large");
+                }
+                byte[] bigger = new byte[Math.min(MAX_BODY, length * 2)];
+                System.arraycopy(buffers[0], 0, bigger, 0, length);
+                buffers[0] = bigger;
+            }
+            int n = in.read(buffers[0], length, buffers[0].length - length);
+            if (n < 0) {
+                return length;
+            }
+            length += n;
+        }
+    }
+
+    private static void parseForm(byte[] data, int start, int end, byte[][] buffers, Map<String, String> params) {
+        String name = null;
+        int length = 0;
+        for (int i = start; i <= end; i++) {
+            byte b = i < end ? data[i] : (byte) '&';
+            if (b == '&') {
+                String value = new String(buffers[1], 0, length, StandardCharsets.UTF_8);
+                if (name != null) {
+                    params.put(name, value);
+                } else if (!value.isEmpty()) {
+                    params.put(value, "");
+                }
+                name = null;
+                length = 0;
+                continue;
+            }
+            if (b == '=' && name == null) {
+                name = new String(buffers[1], 0, length, StandardCharsets.UTF_8);
+                length = 0;
+                continue;
+            }
+            if (b == '+') {
+                b = ' ';
+            } else if (b == '%' && i + 2 < end && hex(data[i + 1]) >= 0 && hex(data[i + 2]) >= 0) {
+                b = (byte) (hex(data[i + 1]) << 4 | hex(data[i + 2]));
+                i += 2;
+            } else if (b == '\r' || b == '\n') {
+                // A trailing newline after a form body is not part of the last value
+                continue;
+            }
+            length = put(buffers, length, b);
+        }
+    }
+
+    /**
+     * Parses {"name": value, ...} where every value is a string, number, boolean or null;
+     * numbers and booleans are kept as written and null values are left out.
+     */
+    private static void parseJson(byte[] data, int end, byte[][] buffers, Map<String, String> params)
+            throws InvalidRequestException {
+        int i = skipSpace(data, 0, end);
+        if (i == end) {
+            return;
+        }
+        if (data[i] != '{') {
+            throw new InvalidRequestException("Expected a JSON object");
+        }
+        i = skipSpace(data, i + 1, end);
+        if (i < end && data[i] == '}') {
+            return;
+        }
+        while (true) {
+            if (i >= end || data[i] != '"') {
+                throw new InvalidRequestException("Expected a field name at byte " + i);
+            }
+            int[] position = {i + 1};
+            String name = jsonString(data, end, position, buffers);
+            i = skipSpace(data, position[0], end);
+            if (i >= end || data[i] != ':') {
+                throw new InvalidRequestException("Expected ':' at byte " + i);
+            }
+            i = skipSpace(data, i + 1, end);
+            if (i < end && data[i] == '"') {
+                position[0] = i + 1;
+                params.put(name, jsonString(data, end, position, buffers));
+                i = position[0];
+            } else {
+                int start = i;
+                while (i < end && data[i] != ',' && data[i] != '}' && data[i] > ' ') {
+                    if (data[i] == '{' || data[i] == '[') {
+                        throw new InvalidRequestException("Nested values are not supported: " + name);
+                    }
+                    i++;
+                }
+                String literal = new String(data, start, i - start, StandardCharsets.UTF_8);
+                if (literal.isEmpty()) {
+                    throw new InvalidRequestException("Missing value for " + name);
+                }
+                if (!literal.equals("null")) {
+                    params.put(name, literal);
+                }
+            }
+            i = skipSpace(data, i, end);
+            if (i < end && data[i] == ',') {
+                i = skipSpace(data, i + 1, end);
+            } else if (i < end && data[i] == '}') {
+                return;
+            } else {
+                throw new InvalidRequestException("Expected ',' or '}' at byte " + i);
+            }
+        }
+    }
+
+    /**
+     * Decodes the string starting at position[0] (just past its opening quote) and
+     * leaves position[0] just past its closing quote.
+     */
+    private static String jsonString(byte[] data, int end, int[] position, byte[][] buffers)
+            throws InvalidRequestException {
+        int length = 0;
+        for (int i = position[0]; i < end; i++) {
+            byte b = data[i];
+            if (b == '"') {
+                position[0] = i + 1;
+                return new String(buffers[1], 0, length, StandardCharsets.UTF_8);
+            }
+            if (b != '\\') {
+                length = put(buffers, length, b);
+                continue;
+            }
+            if (++i == end) {
+                break;
+            }
+            switch (data[i]) {
+                case 'b': length = put(buffers, length, (byte) '\b'); break;
+                case 'f': length = put(buffers, length, (byte) '\f'); break;
+                case 'n': length = put(buffers, length, (byte) '\n'); break;
+                case 'r': length = put(buffers, length, (byte) '\r'); break;
+                case 't': length = put(buffers, length, (byte) '\t'); break;
+                case 'u': {
+                    int c = i + 4 < end ? hex4(data, i + 1) : -1;
+                    if (c < 0) {
+                        throw new InvalidRequestException("Invalid \\u escape at byte " + i);
+                    }
+                    i += 4;
+                    // A surrogate pair arrives as two escapes
+                    if (Character.isHighSurrogate((char) c) && i + 6 < end && data[i + 1] == '\\'
+                            && data[i + 2] == 'u' && hex4(data, i + 3) >= 0
+                            && Character.isLowSurrogate((char) hex4(data, i + 3))) {
+                        c = Character.toCodePoint((char) c, (char) hex4(data, i + 3));
+                        i += 6;
+                    }
+                    for (byte u : new String(Character.toChars(c)).getBytes(StandardCharsets.UTF_8)) {
+                        length = put(buffers, length, u);
+                    }
+                    break;
+                }
+                default: length = put(buffers, length, data[i]);
+            }
+        }
+        throw new InvalidRequestException("Unterminated string");
+    }
+
+    private static int put(byte[][] buffers, int length, byte b) {
+        if (length == buffers[1].length) {
+            byte[] bigger = new byte[length * 2];
+            System.arraycopy(buffers[1], 0, bigger, 0, length);
+            buffers[1] = bigger;
+        }
+        buffers[1][length] = b;
+        return length + 1;
+    }
+
+    private static int skipSpace(byte[] data, int i, int end) {
+        while (i < end && (data[i] == ' ' || data[i] == '\t' || data[i] == '\r' || data[i] == '\n')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int hex4(byte[] data, int i) {
+        int value = 0;
+        for (int k = 0; k < 4; k++) {
+            int digit = hex(data[i + k]);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Every revoked certificate ID in the order it was revoked, numbered so that verifiers
+ * and replicas can poll for just the revocations since their last pull.
+ *
+ * Revocations only ever accumulate, so the list is append-only and a position in it
+ * (the seq) is a complete cursor. Positions are assigned when the server starts
+ * (existing revocations in ID order) and are only meaningful within that run, which is
+ * identified by its epoch; a client presenting another epoch, or no cursor at all, gets
+ * the whole list. The full list is serialised, and gzipped, once per change rather
+ * than once per request.
+ */
+public class RevocationList implements CertificateRegistry.Listener {
+
+    /**
+     * A JSON answer: {"epoch", "seq", "full", "revoked": [...]}.
+     */
+    public static final class Snapshot {
+        public final long seq;
+        public final boolean full;
+        public final byte[] body;
+        private byte[] gzipped;
+
+        Snapshot(long seq, boolean full, byte[] body) {
+            this.seq = seq;
+            this.full = full;
+            this.body = body;
+        }
+
+        public synchronized byte[] gzipped() throws IOException {
+            if (gzipped == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 3 + 64);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                    gzip.write(body);
+                }
+                gzipped = bytes.toByteArray();
+            }
+            return gzipped;
+        }
+    }
+
+    private final long epoch = System.currentTimeMillis();
+    private final Set<String> seen = new HashSet<>();
+    private String[] ids = new String[1024];
+    private int size;
+    private Snapshot full;
+
+    private RevocationList() {
+    }
+
+    public static RevocationList of(CertificateRegistry registry) {
+        RevocationList list = new RevocationList();
+        // Listen first, so nothing revoked while the index is copied is missed
+        registry.addListener(list);
+        for (String id : registry.idsByStatus(CertificateRecord.REVOKED)) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    public synchronized long seq() {
+        return size;
+    }
+
+    /**
+     * Revocations after the given cursor, or the whole list if the cursor is from
+     * another run or out of range.
+     */
+    public Snapshot since(long clientEpoch, long seq) {
+        String[] delta;
+        int end;
+        synchronized (this) {
+            end = size;
+            if (clientEpoch != epoch || seq < 0 || seq > end) {
+                return full();
+            }
+            delta = Arrays.copyOfRange(ids, (int) seq, end);
+        }
+        return new Snapshot(end, false, json(end, false, delta, delta.length));
+    }
+
+    public synchronized Snapshot full() {
+        if (full == null || full.seq != size) {
+            full = new Snapshot(size, true, json(size, true, ids, size));
+        }
+        return full;
+    }
+
+    @Override
+    public void issued(CertificateRecord record) {
+    }
+
+    @Override
+    public void revoked(CertificateRecord record) {
+        add(record.id());
+    }
+
+    private synchronized void add(String id) {
+        if (!seen.add(id)) {
+            return;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size++] = id;
+    }
+
+    private byte[] json(long seq, boolean isFull, String[] revoked, int count) {
+        try {
+            JsonWriter json = JsonWriter.buffered().beginObject()
+                    .field("epoch", epoch)
+                    .field("seq", seq)
+                    .field("full", isFull)
+                    .name("revoked").beginArray();
+            for (int i = 0; i < count; i++) {
+                json.value(revoked[i]);
+            }
+            return json.endArray().endObject().toByteArray();
+        } catch (IOException e) {
+            // A buffered writer has no stream to fail
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps every file under the static directory in memory, together with a gzip copy of
+ * the compressible ones, so serving the landing page and its assets never touches the
+ * disk. The whole tree is indexed at startup and a WatchService reloads a file when it
+ * changes, so a path missing from the index is a 404 without a filesystem lookup.
+ *
+ * The JDK has no Brotli encoder; a precompressed sibling (index.html.br) is picked up
+ * and served as the br variant when present, as is a prebuilt .gz sibling.
+ *
+ * Configured with cert.static.dir (default: static) and cert.static.maxFileSize (bytes
+ * kept in memory per file, default: 8 MB; larger files are read from disk per request).
+ */
+public class StaticAssetCache implements Closeable {
+
+    public static final class Asset {
+        public final String contentType;
+        public final long length;
+        public final String etag;
+        public final String lastModified;
+        final long lastModifiedMillis;
+        final Path file;
+        final byte[] identity;
+        final byte[] gzip;
+        final byte[] brotli;
+
+        Asset(String contentType, Path file, long length, long lastModifiedMillis, String etag,
+              byte[] identity, byte[] gzip, byte[] brotli) {
+            this.contentType = contentType;
+            this.file = file;
+            this.length = length;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.lastModified = HTTP_DATE.format(Instant.ofEpochMilli(lastModifiedMillis));
+            this.etag = etag;
+            this.identity = identity;
+            this.gzip = gzip;
+            this.brotli = brotli;
+        }
+
+        /**
+         * Not modified since the given If-Modified-Since value; HTTP dates have
+         * one-second precision.
+         */
+        public boolean notModifiedSince(String ifModifiedSince) {
+            try {
+                long since = Instant.from(HTTP_DATE.parse(ifModifiedSince.trim())).toEpochMilli();
+                return lastModifiedMillis / 1000 <= since / 1000;
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * The representation picked for one request.
+     */
+    public static final class Variant {
+        public final String encoding;
+        public final String etag;
+        private final byte[] body;
+        private final Path file;
+
+        Variant(String encoding, String etag, byte[] body, Path file) {
+            this.encoding = encoding;
+            this.etag = etag;
+            this.body = body;
+            this.file = file;
+        }
+
+        public long length() throws IOException {
+            return body != null ? body.length : Files.size(file);
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            if (body != null) {
+                out.write(body);
+            } else {
+                Files.copy(file, out);
+            }
+        }
+    }
+
+    static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final Path root;
+    private final long maxFileSize;
+    private final Map<String, Asset> assets = new ConcurrentHashMap<>();
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+
+    public StaticAssetCache(Path root, long maxFileSize) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.maxFileSize = maxFileSize;
+        this.watcher = root.getFileSystem().newWatchService();
+        if (Files.isDirectory(this.root)) {
+            loadTree(this.root);
+        }
+        Thread t = new Thread(this::watch, "static-watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public static StaticAssetCache fromSystemProperties() throws IOException {
+        return new StaticAssetCache(Path.of(System.getProperty("cert.static.dir", "static")),
+                                    Long.getLong("cert.static.maxFileSize", 8L * 1024 * 1024));
+    }
+
+    public Asset get(String path) {
+        return assets.get(path);
+    }
+
+    public int size() {
+        return assets.size();
+    }
+
+    /**
+     * Picks the smallest representation the client accepts.
+     */
+    public Variant select(Asset asset, String acceptEncoding) {
+        if (asset.brotli != null && accepts(acceptEncoding, "br")) {
+            return new Variant("br", withSuffix(asset.etag, "br"), asset.brotli, null);
+        }
+        if (asset.gzip != null && accepts(acceptEncoding, "gzip")) {
+            return new Variant("gzip", withSuffix(asset.etag, "gz"), asset.gzip, null);
+        }
+        return new Variant(null, asset.etag, asset.identity, asset.file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+
+    private void loadTree(Path dir) throws IOException {
+        watchedDirs.put(dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) {
+                    loadTree(entry);
+                } else {
+                    reload(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-reads one file, or the file a changed .gz/.br sibling belongs to.
+     */
+    private void reload(Path file) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".gz") || name.endsWith(".br")) {
+            file = file.resolveSibling(name.substring(0, name.length() - 3));
+        }
+        String key = "/" + root.relativize(file).toString().replace('\\', '/');
+        try {
+            Asset asset = load(file);
+            if (asset == null) {
+                assets.remove(key);
+            } else {
+                assets.put(key, asset);
+            }
+        } catch (IOException e) {
+            // Half-written files come round again with the next modify event
+            assets.remove(key);
+        }
+    }
+
+    private Asset load(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            long length = Files.size(file);
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            String contentType = contentType(file.getFileName().toString());
+            if (length > maxFileSize) {
+                String etag = "\"" + Long.toHexString(modified) + "-" + Long.toHexString(length) + "\"";
+                return new Asset(contentType, file, length, modified, etag, null, null, null);
+            }
+
+            byte[] identity = Files.readAllBytes(file);
+            CRC32 crc = new CRC32();
+            crc.update(identity);
+            String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(identity.length) + "\"";
+
+            byte[] gzip = readSibling(file, ".gz");
+            if (gzip == null && compressible(contentType)) {
+                gzip = gzip(identity);
+            }
+            if (gzip != null && gzip.length >= identity.length) {
+                gzip = null;
+            }
+            return new Asset(contentType, file, identity.length, modified, etag, identity, gzip,
+                             readSibling(file, ".br"));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readSibling(Path file, String suffix) throws IOException {
+        Path sibling = file.resolveSibling(file.getFileName() + suffix);
+        return Files.isRegularFile(sibling) ? Files.readAllBytes(sibling) : null;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out) {{ def.setLevel(9); }}) {
+            gz.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = watchedDirs.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    reloadAll();
+                    continue;
+                }
+                Path changed = dir.resolve((Path) event.context());
+                if (Files.isDirectory(changed)) {
+                    try {
+                        loadTree(changed);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    removeUnder(changed);
+                } else {
+                    reload(changed);
+                }
+            }
+            if (!key.reset()) {
+                watchedDirs.remove(key);
+                if (dir != null) {
+                    removeUnder(dir);
+                }
+            }
+        }
+    }
+
+    private void removeUnder(Path path) {
+        String name = path.getFileName().toString();
+        if (name.endsWith(".gz") || name.endsWith(".br")) {
+            reload(path);
+            return;
+        }
+        String key = "/" + root.relativize(path).toString().replace('\\', '/');
+        assets.keySet().removeIf(k -> k.equals(key) || k.startsWith(key + "/"));
+    }
+
+    private void reloadAll() {
+        assets.clear();
+        try {
+            if (Files.isDirectory(root)) {
+                loadTree(root);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * True if Accept-Encoding lists the coding (or *) without q=0.
+     */
+    static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] pieces = part.split(";");
+            String name = pieces[0].trim();
+            if (!name.equalsIgnoreCase(coding) && !name.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < pieces.length; i++) {
+                String param = pieces[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        if (Double.parseDouble(param.substring(2)) <= 0) {
+                            return false;
+                        }
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static String withSuffix(String etag, String suffix) {
+        return etag.substring(0, etag.length() - 1) + "-" + suffix + "\"";
+    }
+
+    private static boolean compressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.equals("application/javascript") ||
+               contentType.equals("application/json") || contentType.equals("image/svg+xml");
+    }
+
+    static String contentType(String path) {
+        if (path.endsWith(".html")) return "text/html";
+        if (path.endsWith(".css")) return "text/css";
+        if (path.endsWith(".js")) return "application/javascript";
+        if (path.endsWith(".json")) return "application/json";
+        if (path.endsWith(".svg")) return "image/svg+xml";
+        if (path.endsWith(".png")) return "image/png";
+        if (path.endsWith(".jpg") || path.endsWith(".jpeg")) return "image/jpeg";
+        return "text/plain";
+    }
+}
@@ -0,0 +1,25 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Issues RFC 3161 timestamp tokens for certificate signatures. Requests are handed over
+ * in batches, so an implementation talking to a remote authority can send one request
+ * (or one connection's worth of requests) for many signatures.
+ *
+ * Selected with cert.sign.tsa: "local" for LocalTimestampAuthority, or the name of a
+ * class implementing this interface with a public no-argument constructor.
+ */
+public interface TimestampAuthority {
+
+    /**
+     * Returns one DER-encoded TimeStampToken per SHA-256 imprint, in the same order.
+     */
+    List<byte[]> timestamp(List<byte[]> imprints) throws IOException;
+
+    static TimestampAuthority forName(String name) throws Exception {
+        if ("local".equalsIgnoreCase(name)) {
+            return new LocalTimestampAuthority();
+        }
+        return (TimestampAuthority) Class.forName(name).getDeclaredConstructor().newInstance();
+    }
+}
@@ -1,30 +1,92 @@
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
 
 import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
 import java.net.InetSocketAddress;
-import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public class WebServer {
     
     private static final int PORT = 8080;
+    // Certificate IDs as accepted from clients; anything else never reaches the store
+    static final Pattern CERT_ID = Pattern.compile("[A-Za-z0-9]+");
     
     public static void main(String[] args) throws Exception {
         HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
+        WorkerPools pools = WorkerPools.fromSystemProperties();
+        CertificateLedger ledger = CertificateGenerator.openLedger();
+        CertificateRegistry registry = CertificateRegistry.load(ledger);
+        CertificateStore store = CertificateStore.fromSystemProperties();
+        CertificateSigner signer = CertificateSigner.fromSystemProperties();
+        CertificateGenerator generator = new CertificateGenerator(registry, CertificateIdGenerator.fromSystemProperties(),
+                store, !"lazy".equalsIgnoreCase(System.getProperty("cert.render.mode", "eager")), signer);
+        CertificateArtifacts artifacts = CertificateArtifacts.fromSystemProperties(registry, generator);
+        BatchIssuer batchIssuer = BatchIssuer.fromSystemProperties(generator, registry);
+        JobManager jobs = JobManager.fromSystemProperties("data", batchIssuer);
+        StaticAssetCache assets = StaticAssetCache.fromSystemProperties();
+        CertificateVerifier verifier = CertificateVerifier.fromSystemProperties(registry);
+        RevocationList revocations = RevocationList.of(registry);
+        CertificateSearch search = CertificateSearch.fromSystemProperties(registry);
         
-        server.createContext("/", new StaticFileHandler());
-        server.createContext("/generate", new GenerateCertificateHandler());
-        server.createContext("/download", new DownloadHandler());
-        server.createContext("/list", new ListCertificatesHandler());
-        server.createContext("/revoke", new RevokeCertificateHandler());
+        server.createContext("/", pooled(pools.readPool(), pools, new StaticFileHandler(assets)));
+        server.createContext("/generate", pooled(pools.generatePool(), pools, new GenerateCertificateHandler(generator)));
+        server.createContext("/generate/batch", pooled(pools.generatePool(), pools, new BatchGenerateHandler(batchIssuer)));
+        server.createContext("/jobs", pooled(pools.readPool(), pools, new JobsHandler(jobs)));
+        server.createContext("/download", pooled(pools.readPool(), pools, new DownloadHandler(artifacts)));
+        server.createContext("/download/bundle", pooled(pools.readPool(), pools, new BundleHandler(registry, artifacts)));
+        server.createContext("/list", pooled(pools.readPool(), pools, new ListCertificatesHandler(registry)));
+        server.createContext("/search", pooled(pools.readPool(), pools, new SearchHandler(search)));
+        server.createContext("/revoke", pooled(pools.readPool(), pools, new RevokeCertificateHandler(registry)));
+        server.createContext("/revoke/batch", pooled(pools.readPool(), pools, new BatchRevokeHandler(registry)));
+        server.createContext("/revocations", pooled(pools.readPool(), pools, new RevocationsHandler(revocations)));
+        server.createContext("/metrics", pooled(pools.readPool(), pools, new MetricsHandler()));
+        registerGauges(pools, registry, assets);
+        server.createContext("/verify", pooled(pools.readPool(), pools, new VerifyHandler(verifier)));
         
+        // The dispatcher thread only hands exchanges over to the worker pools
         server.setExecutor(null);
         server.start();
         
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            pools.shutdown();
+            jobs.shutdown();
+            batchIssuer.shutdown();
+            if (signer != null) {
+                signer.shutdown();
+            }
+            try {
+                assets.close();
+                store.close();
+                ledger.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        
         System.out.println("╔════════════════════════════════════════════╗");
         System.out.println("║   Certificate Generator Server Started    ║");
         System.out.println("╠════════════════════════════════════════════╣");
@@ -35,7 +97,112 @@ public class WebServer {
         System.out.println("╚════════════════════════════════════════════╝");
     }
     
+    private static HttpHandler pooled(WorkerPools.BoundedPool pool, WorkerPools pools, HttpHandler handler) {
+        return new PooledHandler(pool, pools.retryAfterSeconds(), handler);
+    }
+    
+    private static void registerGauges(WorkerPools pools, CertificateRegistry registry, StaticAssetCache assets) {
+        for (WorkerPools.BoundedPool pool : new WorkerPools.BoundedPool[] {pools.generatePool(), pools.readPool()}) {
+            Metrics.gauge("cert_pool_queue_depth", "Requests admitted and waiting for a worker",
+                          pool::queueDepth, "pool", pool.name());
+            Metrics.gauge("cert_pool_active", "Requests being handled", pool::activeCount, "pool", pool.name());
+            Metrics.gauge("cert_pool_capacity", "Requests a pool admits before answering 503",
+                          () -> pool.threads() + pool.queueCapacity(), "pool", pool.name());
+        }
+        Metrics.gauge("cert_registry_certificates", "Certificates in the registry", registry::size);
+        Metrics.gauge("cert_registry_revoked", "Revoked certificates in the registry",
+                      () -> registry.countByStatus(CertificateRecord.REVOKED));
+        Metrics.gauge("cert_static_assets", "Static files held in memory", assets::size);
+        
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Metrics.gauge("jvm_memory_used_bytes", "Heap in use", () -> memory.getHeapMemoryUsage().getUsed(),
+                      "area", "heap");
+        Metrics.gauge("jvm_memory_committed_bytes", "Heap reserved from the OS",
+                      () -> memory.getHeapMemoryUsage().getCommitted(), "area", "heap");
+        Metrics.gauge("jvm_memory_max_bytes", "Largest heap allowed", () -> memory.getHeapMemoryUsage().getMax(),
+                      "area", "heap");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Metrics.gauge("jvm_gc_collections", "Collections run so far", gc::getCollectionCount, "gc", gc.getName());
+            Metrics.gauge("jvm_gc_collection_seconds", "Time spent collecting so far",
+                          () -> gc.getCollectionTime() / 1000.0, "gc", gc.getName());
+        }
+    }
+    
+    /**
+     * Runs a handler on a worker pool and records its request count, status, latency
+     * (queueing included) and response bytes, plus a JFR event per request.
+     */
+    static class PooledHandler implements HttpHandler {
+        private final WorkerPools.BoundedPool pool;
+        private final int retryAfterSeconds;
+        private final HttpHandler delegate;
+        private volatile Metrics.Endpoint metrics;
+        
+        PooledHandler(WorkerPools.BoundedPool pool, int retryAfterSeconds, HttpHandler delegate) {
+            this.pool = pool;
+            this.retryAfterSeconds = retryAfterSeconds;
+            this.delegate = delegate;
+        }
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            long start = System.nanoTime();
+            Metrics.RequestEvent event = new Metrics.RequestEvent();
+            event.begin();
+            Metrics.Endpoint endpoint = metrics;
+            if (endpoint == null) {
+                endpoint = metrics = new Metrics.Endpoint(exchange.getHttpContext().getPath());
+            }
+            CountingOutputStream counted = new CountingOutputStream(exchange.getResponseBody());
+            exchange.setStreams(null, counted);
+            
+            Metrics.Endpoint target = endpoint;
+            boolean accepted = pool.trySubmit(() -> {
+                try {
+                    delegate.handle(exchange);
+                } catch (Exception e) {
+                    target.failed();
+                    e.printStackTrace();
+                } finally {
+                    exchange.close();
+                    record(exchange, target, event, start, counted.count);
+                }
+            });
+            
+            if (!accepted) {
+                byte[] response = ("{\"success\": false, \"error\": \"Server busy, retry in " +
+                                   retryAfterSeconds + " seconds\"}").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+                exchange.sendResponseHeaders(503, response.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(response);
+                os.close();
+                record(exchange, endpoint, event, start, counted.count);
+            }
+        }
+        
+        private static void record(HttpExchange exchange, Metrics.Endpoint endpoint, Metrics.RequestEvent event,
+                                   long start, long bytes) {
+            endpoint.completed(exchange.getResponseCode(), start, bytes);
+            event.end();
+            if (event.shouldCommit()) {
+                event.endpoint = endpoint.path();
+                event.method = exchange.getRequestMethod();
+                event.status = exchange.getResponseCode();
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+    
     static class StaticFileHandler implements HttpHandler {
+        private final StaticAssetCache assets;
+        
+        StaticFileHandler(StaticAssetCache assets) {
+            this.assets = assets;
+        }
+        
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             String path = exchange.getRequestURI().getPath();
@@ -44,15 +211,35 @@ public class WebServer {
                 path = "/index.html";
             }
             
-            File file = new File("static" + path);
+            StaticAssetCache.Asset asset = assets.get(path);
             
-            if (file.exists() && !file.isDirectory()) {
-                String contentType = getContentType(path);
-                exchange.getResponseHeaders().set("Content-Type", contentType);
-                exchange.sendResponseHeaders(200, file.length());
+            if (asset != null) {
+                Headers requestHeaders = exchange.getRequestHeaders();
+                StaticAssetCache.Variant variant = assets.select(asset, requestHeaders.getFirst("Accept-Encoding"));
+                Headers headers = exchange.getResponseHeaders();
+                headers.set("ETag", variant.etag);
+                headers.set("Last-Modified", asset.lastModified);
+                headers.set("Cache-Control", "no-cache");
+                headers.set("Vary", "Accept-Encoding");
+                
+                String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+                String ifModifiedSince = requestHeaders.getFirst("If-Modified-Since");
+                boolean notModified = ifNoneMatch != null
+                        ? DownloadHandler.matchesAny(ifNoneMatch, variant.etag)
+                        : ifModifiedSince != null && asset.notModifiedSince(ifModifiedSince);
+                if (notModified) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+                
+                headers.set("Content-Type", asset.contentType);
+                if (variant.encoding != null) {
+                    headers.set("Content-Encoding", variant.encoding);
+                }
+                exchange.sendResponseHeaders(200, variant.length());
                 
                 OutputStream os = exchange.getResponseBody();
-                Files.copy(file.toPath(), os);
+                variant.writeTo(os);
                 os.close();
             } else {
                 String response = "404 - File Not Found";
@@ -62,27 +249,27 @@ public class WebServer {
                 os.close();
             }
         }
-        
-        private String getContentType(String path) {
-            if (path.endsWith(".html")) return "text/html";
-            if (path.endsWith(".css")) return "text/css";
-            if (path.endsWith(".js")) return "application/javascript";
-            if (path.endsWith(".png")) return "image/png";
-            if (path.endsWith(".jpg") || path.endsWith(".jpeg")) return "image/jpeg";
-            return "text/plain";
-        }
     }
     
     static class GenerateCertificateHandler implements HttpHandler {
+        private final CertificateGenerator generator;
+        
+        GenerateCertificateHandler(CertificateGenerator generator) {
+            this.generator = generator;
+        }
+        
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             if ("POST".equals(exchange.getRequestMethod())) {
                 try {
-                    InputStreamReader isr = new InputStreamReader(exchange.getRequestBody(), "utf-8");
-                    BufferedReader br = new BufferedReader(isr);
-                    String query = br.readLine();
-                    
-                    Map<String, String> params = parseQuery(query);
+                    Map<String, String> params;
+                    try {
+                        params = RequestParams.all(exchange);
+                    } catch (RequestParams.InvalidRequestException e) {
+                        JsonWriter.buffered().beginObject().field("success", false)
+                                .field("error", e.getMessage()).endObject().send(exchange, 400);
+                        return;
+                    }
                     
                     String name = params.getOrDefault("name", "");
                     String certType = params.getOrDefault("certType", "");
@@ -91,297 +278,870 @@ public class WebServer {
                     String instructor = params.getOrDefault("instructor", "");
                     String hours = params.getOrDefault("hours", "");
                     
-                    CertificateGenerator generator = new CertificateGenerator();
                     String certId = generator.generateCertificate(name, certType, courseName, 
                                                                  date, instructor, hours);
                     
-                    String jsonResponse = "{\"success\": true, \"certificateId\": \"" + certId + "\"}";
-                    
-                    exchange.getResponseHeaders().set("Content-Type", "application/json");
-                    exchange.sendResponseHeaders(200, jsonResponse.length());
-                    OutputStream os = exchange.getResponseBody();
-                    os.write(jsonResponse.getBytes());
-                    os.close();
+                    JsonWriter.buffered().beginObject().field("success", true)
+                            .field("certificateId", certId).endObject().send(exchange, 200);
                     
+                } catch (IllegalArgumentException e) {
+                    JsonWriter.buffered().beginObject().field("success", false)
+                            .field("error", e.getMessage()).endObject().send(exchange, 400);
                 } catch (Exception e) {
                     e.printStackTrace();
-                    String errorResponse = "{\"success\": false, \"error\": \"" + 
-                                         e.getMessage().replace("\"", "'") + "\"}";
-                    exchange.getResponseHeaders().set("Content-Type", "application/json");
-                    exchange.sendResponseHeaders(500, errorResponse.length());
-                    OutputStream os = exchange.getResponseBody();
-                    os.write(errorResponse.getBytes());
-                    os.close();
+                    JsonWriter.buffered().beginObject().field("success", false)
+                            .field("error", String.valueOf(e.getMessage())).endObject().send(exchange, 500);
                 }
             } else {
                 exchange.sendResponseHeaders(405, -1);
             }
         }
+    }
+    
+    static class BatchGenerateHandler implements HttpHandler {
+        private final BatchIssuer issuer;
         
-        private Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
-            Map<String, String> result = new HashMap<>();
-            if (query != null) {
-                for (String param : query.split("&")) {
-                    String[] pair = param.split("=");
-                    if (pair.length > 1) {
-                        result.put(URLDecoder.decode(pair[0], "UTF-8"), 
-                                 URLDecoder.decode(pair[1], "UTF-8"));
-                    } else {
-                        result.put(URLDecoder.decode(pair[0], "UTF-8"), "");
-                    }
+        BatchGenerateHandler(BatchIssuer issuer) {
+            this.issuer = issuer;
+        }
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            
+            Map<String, String> params = RequestParams.query(exchange);
+            BatchInput.Format format = BatchInput.detect(
+                    exchange.getRequestHeaders().getFirst("Content-Type"), params.get("format"));
+            BatchInput input = new BatchInput(
+                    new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), format);
+            
+            // One result line per row, flushed as each chunk is committed
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                JsonWriter out = new JsonWriter(os);
+                try {
+                    BatchIssuer.Summary summary = issuer.run(input, () -> false, new BatchIssuer.Listener() {
+                        public void rowDone(int row, CertificateRecord record, String error) throws IOException {
+                            out.beginObject().field("row", row);
+                            if (record != null) {
+                                out.field("success", true).field("certificateId", record.id());
+                            } else {
+                                out.field("success", false).field("error", error);
+                            }
+                            out.endObject().newline();
+                        }
+                        
+                        public void chunkCommitted(int lastRow) throws IOException {
+                            out.flush();
+                        }
+                    });
+                    out.beginObject().field("done", true).field("issued", summary.issued)
+                       .field("failed", summary.failed).endObject().newline();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    out.beginObject().field("done", false).field("error", String.valueOf(e.getMessage()))
+                       .endObject().newline();
                 }
+                out.flush();
             }
-            return result;
         }
     }
     
-    static class DownloadHandler implements HttpHandler {
+    static class JobsHandler implements HttpHandler {
+        private final JobManager jobs;
+        
+        JobsHandler(JobManager jobs) {
+            this.jobs = jobs;
+        }
+        
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String query = exchange.getRequestURI().getQuery();
-            Map<String, String> params = new HashMap<>();
+            String method = exchange.getRequestMethod();
+            String[] parts = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+            // parts: "", "jobs", id, action
+            String jobId = parts.length > 2 ? parts[2] : null;
+            String action = parts.length > 3 ? parts[3] : null;
             
-            if (query != null) {
-                for (String param : query.split("&")) {
-                    String[] pair = param.split("=");
-                    if (pair.length > 1) {
-                        params.put(pair[0], URLDecoder.decode(pair[1], "UTF-8"));
+            try {
+                if (jobId == null && "POST".equals(method)) {
+                    Map<String, String> params = RequestParams.query(exchange);
+                    BatchInput.Format format = BatchInput.detect(
+                            exchange.getRequestHeaders().getFirst("Content-Type"), params.get("format"));
+                    JobManager.Job job;
+                    try {
+                        job = jobs.submit(exchange.getRequestBody(), format);
+                    } catch (RejectedExecutionException e) {
+                        exchange.getResponseHeaders().set("Retry-After", "60");
+                        sendJson(exchange, 503, "{\"success\": false, \"error\": \"Job queue is full\"}");
+                        return;
+                    } catch (JobManager.UploadTooLargeException e) {
+                        // Drain what is left so the connection can carry the next request
+                        exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+                        JsonWriter.buffered().beginObject().field("success", false)
+                                .field("error", e.getMessage()).endObject().send(exchange, 413);
+                        return;
+                    }
+                    exchange.getResponseHeaders().set("Location", "/jobs/" + job.id);
+                    JsonWriter.buffered().beginObject().field("success", true).field("jobId", job.id)
+                            .field("status", "/jobs/" + job.id).field("total", job.total())
+                            .endObject().send(exchange, 202);
+                } else if (jobId == null && "GET".equals(method)) {
+                    JsonWriter json = JsonWriter.buffered().beginObject().name("jobs").beginArray();
+                    for (JobManager.Job job : jobs.all()) {
+                        writeJob(json, job);
                     }
+                    json.endArray().endObject().send(exchange, 200);
+                } else if (jobId == null) {
+                    exchange.sendResponseHeaders(405, -1);
+                } else if (jobs.get(jobId) == null) {
+                    sendJson(exchange, 404, "{\"success\": false, \"error\": \"Job not found\"}");
+                } else if ("DELETE".equals(method) || ("POST".equals(method) && "cancel".equals(action))) {
+                    boolean cancelled = jobs.cancel(jobId);
+                    sendJson(exchange, cancelled ? 200 : 409, cancelled ? "{\"success\": true}"
+                            : "{\"success\": false, \"error\": \"Job already finished\"}");
+                } else if ("GET".equals(method) && "results".equals(action)) {
+                    Path results = jobs.resultsFile(jobId);
+                    exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+                    exchange.sendResponseHeaders(200, 0);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        if (Files.exists(results)) {
+                            Files.copy(results, os);
+                        }
+                    }
+                } else if ("GET".equals(method) && action == null) {
+                    JsonWriter json = JsonWriter.buffered();
+                    writeJob(json, jobs.get(jobId));
+                    json.send(exchange, 200);
+                } else {
+                    exchange.sendResponseHeaders(405, -1);
                 }
+            } catch (Exception e) {
+                e.printStackTrace();
+                JsonWriter.buffered().beginObject().field("success", false)
+                        .field("error", String.valueOf(e.getMessage())).endObject().send(exchange, 500);
+            }
+        }
+        
+        private void writeJob(JsonWriter json, JobManager.Job job) throws IOException {
+            json.beginObject()
+                .field("id", job.id)
+                .field("state", String.valueOf(job.state()))
+                .field("total", job.total())
+                .field("processed", job.processed())
+                .field("issued", job.issued())
+                .field("failed", job.failed())
+                .field("progress", job.total() == 0 ? 100 : job.processed() * 100 / job.total())
+                .name("rowsPerSecond").number(String.format(Locale.ROOT, "%.1f", job.rowsPerSecond()))
+                .field("submitted", job.submitted())
+                .field("started", job.started())
+                .field("finished", job.finished())
+                .field("results", "/jobs/" + job.id + "/results");
+            if (job.error() != null) {
+                json.field("error", job.error());
             }
+            json.endObject();
+        }
+    }
+    
+    static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] response = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, response.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(response);
+        os.close();
+    }
+    
+    /**
+     * Serves certificate PDFs. A PDF never changes once written, so responses carry a
+     * strong ETag built from the certificate ID and the layout revision, are cacheable
+     * for a year, and honour If-None-Match (304) and single byte ranges (206).
+     */
+    static class DownloadHandler implements HttpHandler {
+        private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+        
+        private final CertificateArtifacts artifacts;
+        
+        DownloadHandler(CertificateArtifacts artifacts) {
+            this.artifacts = artifacts;
+        }
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Map<String, String> params = RequestParams.query(exchange);
             
             String certId = params.get("id");
-            if (certId != null) {
-                File file = new File("certificates/certificate_" + certId + ".pdf");
-                
-                if (file.exists()) {
-                    exchange.getResponseHeaders().set("Content-Type", "application/pdf");
-                    exchange.getResponseHeaders().set("Content-Disposition", 
-                        "attachment; filename=\"certificate_" + certId + ".pdf\"");
-                    exchange.sendResponseHeaders(200, file.length());
-                    
-                    OutputStream os = exchange.getResponseBody();
-                    Files.copy(file.toPath(), os);
-                    os.close();
-                } else {
-                    String response = "Certificate not found";
-                    exchange.sendResponseHeaders(404, response.length());
-                    OutputStream os = exchange.getResponseBody();
-                    os.write(response.getBytes());
-                    os.close();
-                }
-            } else {
+            if (certId == null || !CERT_ID.matcher(certId).matches()) {
                 String response = "Invalid request";
                 exchange.sendResponseHeaders(400, response.length());
                 OutputStream os = exchange.getResponseBody();
                 os.write(response.getBytes());
                 os.close();
+                return;
+            }
+            
+            String etag = "\"" + certId + "-r" + CertificateGenerator.LAYOUT_REVISION + "\"";
+            // A PDF signed again after eviction has other bytes, so it only gets a weak ETag
+            boolean weak = !artifacts.reproducible();
+            Headers headers = exchange.getResponseHeaders();
+            
+            // The ETag depends only on the ID, so a revalidation is answered without
+            // opening the PDF, which in lazy mode could mean rendering and signing it
+            if (matchesAny(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)
+                    && artifacts.issued(certId)) {
+                headers.set("ETag", weak ? "W/" + etag : etag);
+                headers.set("Cache-Control", CACHE_CONTROL);
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            
+            CertificateArtifacts.Artifact artifact;
+            try {
+                artifact = artifacts.open(certId);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Cannot render certificate " + certId, e);
+            }
+            if (artifact == null) {
+                String response = "Certificate not found";
+                exchange.sendResponseHeaders(404, response.length());
+                OutputStream os = exchange.getResponseBody();
+                os.write(response.getBytes());
+                os.close();
+                return;
+            }
+            
+            try (artifact) {
+                long length = artifact.length();
+                headers.set("ETag", weak ? "W/" + etag : etag);
+                headers.set("Cache-Control", CACHE_CONTROL);
+                headers.set("Accept-Ranges", "bytes");
+                
+                headers.set("Content-Type", "application/pdf");
+                headers.set("Content-Disposition", "attachment; filename=\"certificate_" + certId + ".pdf\"");
+                
+                // A Range is only honoured if If-Range, when sent, still names this version;
+                // a weak ETag never does
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+                if (range != null && ifRange != null && (weak || !ifRange.trim().equals(etag))) {
+                    range = null;
+                }
+                
+                long start = 0;
+                long count = length;
+                int status = 200;
+                if (range != null) {
+                    long[] bounds = parseRange(range, length);
+                    if (bounds == null) {
+                        headers.set("Content-Range", "bytes */" + length);
+                        exchange.sendResponseHeaders(416, -1);
+                        return;
+                    }
+                    if (bounds.length == 2) {
+                        start = bounds[0];
+                        count = bounds[1] - bounds[0] + 1;
+                        status = 206;
+                        headers.set("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + length);
+                    }
+                }
+                
+                exchange.sendResponseHeaders(status, count);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    if (artifact.blob == null) {
+                        os.write(artifact.bytes, (int) start, (int) count);
+                        return;
+                    }
+                    // The exchange exposes a stream rather than its socket, so transferTo
+                    // hands the file to the response without an intermediate copy loop
+                    WritableByteChannel target = Channels.newChannel(os);
+                    FileChannel channel = artifact.blob.channel;
+                    long position = artifact.blob.offset + start;
+                    long end = position + count;
+                    while (position < end) {
+                        long sent = channel.transferTo(position, end - position, target);
+                        if (sent <= 0) {
+                            break;
+                        }
+                        position += sent;
+                    }
+                }
+            }
+        }
+        
+        static boolean matchesAny(String ifNoneMatch, String etag) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*") || candidate.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * Parses a single "bytes=" range into {first, last}. Returns an empty array when
+         * the header should be ignored (other units, several ranges, malformed) and null
+         * when the range lies outside the file.
+         */
+        static long[] parseRange(String header, long length) {
+            String value = header.trim();
+            if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+                return new long[0];
+            }
+            value = value.substring("bytes=".length()).trim();
+            int dash = value.indexOf('-');
+            if (dash < 0) {
+                return new long[0];
+            }
+            try {
+                String first = value.substring(0, dash).trim();
+                String last = value.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    // Suffix range: the final N bytes
+                    long suffix = Long.parseLong(last);
+                    if (suffix <= 0 || length == 0) {
+                        return null;
+                    }
+                    return new long[] {Math.max(0, length - suffix), length - 1};
+                }
+                long from = Long.parseLong(first);
+                long to = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (from < 0 || from >= length) {
+                    return null;
+                }
+                if (to < from) {
+                    return new long[0];
+                }
+                return new long[] {from, to};
+            } catch (NumberFormatException e) {
+                return new long[0];
             }
         }
     }
     
-    static class ListCertificatesHandler implements HttpHandler {
+    /**
+     * Streams a ZIP of certificate PDFs: those listed in the body or in ids= (comma
+     * separated), or every certificate matching course, type, status, name, and date or
+     * from/to in the query. PDFs are already compressed, so entries are stored as they
+     * are. A stored entry needs its CRC before its data, so each PDF is read twice: once
+     * for the CRC and once to copy it, the second read coming from the page cache. One
+     * copy buffer serves the whole bundle, and nothing is held in memory or written to
+     * disk beyond the ZIP's per-entry directory records. Listed IDs that were never
+     * issued are named in a final missing.txt entry.
+     */
+    static class BundleHandler implements HttpHandler {
+        private static final int MAX_BODY = 32 << 20;
+        
+        private final CertificateRegistry registry;
+        private final CertificateArtifacts artifacts;
+        
+        BundleHandler(CertificateRegistry registry, CertificateArtifacts artifacts) {
+            this.registry = registry;
+            this.artifacts = artifacts;
+        }
+        
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            try {
-                File xmlFile = new File("data/certificates.xml");
-                
-                if (!xmlFile.exists()) {
-                    String response = "{\"certificates\": []}";
-                    exchange.getResponseHeaders().set("Content-Type", "application/json");
-                    exchange.sendResponseHeaders(200, response.length());
-                    OutputStream os = exchange.getResponseBody();
-                    os.write(response.getBytes());
-                    os.close();
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"POST".equals(method)) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            
+            Map<String, String> params = RequestParams.query(exchange);
+            String date = params.get("date");
+            CertificateRegistry.Filter filter = new CertificateRegistry.Filter()
+                    .status(params.get("status"))
+                    .type(params.get("type"))
+                    .course(params.get("course"))
+                    .from(date != null ? date : params.get("from"))
+                    .to(date != null ? date : params.get("to"))
+                    .namePrefix(params.get("name"));
+            
+            Set<String> listed = new LinkedHashSet<>();
+            String ids = params.getOrDefault("ids", "");
+            if ("POST".equals(method)) {
+                byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+                if (body.length > MAX_BODY) {
+                    sendJson(exchange, 413, "{\"success\": false, \"error\": \"Request body too large\"}");
                     return;
                 }
-                
-                StringBuilder jsonBuilder = new StringBuilder();
-                jsonBuilder.append("{\"certificates\": [");
-                
-                BufferedReader reader = new BufferedReader(new FileReader(xmlFile));
-                String line;
-                boolean inCertificate = false;
-                String id = "", name = "", type = "", course = "", date = "", instructor = "", hours = "", status = "";
-                boolean firstCert = true;
-                
-                while ((line = reader.readLine()) != null) {
-                    line = line.trim();
+                ids += "," + new String(body, StandardCharsets.UTF_8);
+            }
+            for (String token : ids.split("[\\s,\\[\\]\"]+")) {
+                if (!token.isEmpty()) {
+                    listed.add(token);
+                }
+            }
+            
+            Iterator<String> source = listed.iterator();
+            if (listed.isEmpty()) {
+                if (filter.isEmpty()) {
+                    sendJson(exchange, 400, "{\"success\": false, \"error\": \"No certificate IDs or filter given\"}");
+                    return;
+                }
+                Iterator<CertificateRecord> matches = registry.find(filter, null, false);
+                if (!matches.hasNext()) {
+                    sendJson(exchange, 404, "{\"success\": false, \"error\": \"No matching certificates\"}");
+                    return;
+                }
+                source = new Iterator<String>() {
+                    public boolean hasNext() {
+                        return matches.hasNext();
+                    }
                     
-                    if (line.equals("<certificate>")) {
-                        inCertificate = true;
-                        id = name = type = course = date = instructor = hours = status = "";
-                    } else if (line.equals("</certificate>") && inCertificate) {
-                        if (!firstCert) {
-                            jsonBuilder.append(",");
-                        }
-                        jsonBuilder.append("{");
-                        jsonBuilder.append("\"id\":\"").append(escapeJson(id)).append("\",");
-                        jsonBuilder.append("\"name\":\"").append(escapeJson(name)).append("\",");
-                        jsonBuilder.append("\"type\":\"").append(escapeJson(type)).append("\",");
-                        jsonBuilder.append("\"course\":\"").append(escapeJson(course)).append("\",");
-                        jsonBuilder.append("\"date\":\"").append(escapeJson(date)).append("\",");
-                        jsonBuilder.append("\"instructor\":\"").append(escapeJson(instructor)).append("\",");
-                        jsonBuilder.append("\"hours\":\"").append(escapeJson(hours)).append("\",");
-                        jsonBuilder.append("\"status\":\"").append(escapeJson(status.isEmpty() ? "Active" : status)).append("\"");
-                        jsonBuilder.append("}");
-                        firstCert = false;
-                        inCertificate = false;
-                    } else if (inCertificate) {
-                        if (line.startsWith("<id>")) id = extractValue(line, "id");
-                        else if (line.startsWith("<n>")) name = extractValue(line, "n");
-                        else if (line.startsWith("<type>")) type = extractValue(line, "type");
-                        else if (line.startsWith("<course>")) course = extractValue(line, "course");
-                        else if (line.startsWith("<date>")) date = extractValue(line, "date");
-                        else if (line.startsWith("<instructor>")) instructor = extractValue(line, "instructor");
-                        else if (line.startsWith("<hours>")) hours = extractValue(line, "hours");
-                        else if (line.startsWith("<status>")) status = extractValue(line, "status");
+                    public String next() {
+                        return matches.next().id();
                     }
+                };
+            }
+            
+            exchange.getResponseHeaders().set("Content-Type", "application/zip");
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"certificates.zip\"");
+            exchange.sendResponseHeaders(200, 0);
+            
+            // Not closed on failure: a ZIP cut off before its directory is visibly broken,
+            // whereas finishing it would pass off a partial bundle as complete
+            ZipOutputStream zip = new ZipOutputStream(exchange.getResponseBody());
+            byte[] buffer = new byte[64 * 1024];
+            StringBuilder missing = new StringBuilder();
+            while (source.hasNext()) {
+                String certId = source.next();
+                if (!CERT_ID.matcher(certId).matches()) {
+                    missing.append(certId).append('\n');
+                    continue;
                 }
-                reader.close();
-                
-                jsonBuilder.append("]}");
-                String response = jsonBuilder.toString();
-                
+                CertificateArtifacts.Artifact artifact;
+                try {
+                    artifact = artifacts.open(certId);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Cannot render certificate " + certId, e);
+                }
+                if (artifact == null) {
+                    missing.append(certId).append('\n');
+                    continue;
+                }
+                try (artifact) {
+                    if (artifact.bytes != null) {
+                        writeEntry(zip, certId + ".pdf", artifact.bytes);
+                    } else {
+                        writeEntry(zip, certId + ".pdf", artifact.blob, buffer);
+                    }
+                }
+            }
+            if (missing.length() > 0) {
+                writeEntry(zip, "missing.txt", missing.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            zip.finish();
+            zip.close();
+        }
+        
+        private static void writeEntry(ZipOutputStream zip, String name, byte[] data) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            zip.putNextEntry(storedEntry(name, data.length, crc.getValue()));
+            zip.write(data);
+            zip.closeEntry();
+        }
+        
+        private static void writeEntry(ZipOutputStream zip, String name, CertificateStore.Blob blob, byte[] buffer)
+                throws IOException {
+            ByteBuffer chunk = ByteBuffer.wrap(buffer);
+            CRC32 crc = new CRC32();
+            for (long done = 0; done < blob.length; ) {
+                int n = read(blob, done, chunk);
+                crc.update(buffer, 0, n);
+                done += n;
+            }
+            zip.putNextEntry(storedEntry(name, blob.length, crc.getValue()));
+            for (long done = 0; done < blob.length; ) {
+                int n = read(blob, done, chunk);
+                zip.write(buffer, 0, n);
+                done += n;
+            }
+            zip.closeEntry();
+        }
+        
+        private static int read(CertificateStore.Blob blob, long done, ByteBuffer chunk) throws IOException {
+            chunk.clear().limit((int) Math.min(chunk.capacity(), blob.length - done));
+            int n = blob.channel.read(chunk, blob.offset + done);
+            if (n < 0) {
+                throw new IOException("Stored certificate is truncated");
+            }
+            return n;
+        }
+        
+        private static ZipEntry storedEntry(String name, long size, long crc) {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            entry.setCrc(crc);
+            return entry;
+        }
+    }
+    
+    static class VerifyHandler implements HttpHandler {
+        private final CertificateVerifier verifier;
+        
+        VerifyHandler(CertificateVerifier verifier) {
+            this.verifier = verifier;
+        }
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Map<String, String> params = RequestParams.query(exchange);
+            CertificateVerifier.Result result = verifier.verify(params.get("id"));
+            
+            // Revocation must show up at once, so clients revalidate every time
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(result.status, result.body.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(result.body);
+            os.close();
+        }
+    }
+    
+    static class ListCertificatesHandler implements HttpHandler {
+        private final CertificateRegistry registry;
+        
+        ListCertificatesHandler(CertificateRegistry registry) {
+            this.registry = registry;
+        }
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Map<String, String> params = RequestParams.query(exchange);
+            
+            int limit;
+            try {
+                limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : Integer.MAX_VALUE;
+            } catch (NumberFormatException e) {
+                limit = -1;
+            }
+            String order = params.getOrDefault("order", "asc");
+            if (limit <= 0 || !(order.equals("asc") || order.equals("desc"))) {
+                byte[] response = "{\"certificates\": [], \"error\": \"Invalid limit or order\"}"
+                        .getBytes(StandardCharsets.UTF_8);
                 exchange.getResponseHeaders().set("Content-Type", "application/json");
-                exchange.sendResponseHeaders(200, response.length());
+                exchange.sendResponseHeaders(400, response.length);
                 OutputStream os = exchange.getResponseBody();
-                os.write(response.getBytes());
+                os.write(response);
                 os.close();
+                return;
+            }
+            
+            CertificateRegistry.Filter filter = new CertificateRegistry.Filter()
+                    .status(params.get("status"))
+                    .type(params.get("type"))
+                    .course(params.get("course"))
+                    .from(params.get("from"))
+                    .to(params.get("to"))
+                    .namePrefix(params.get("name"));
+            Iterator<CertificateRecord> records = registry.find(filter, params.get("after"), order.equals("desc"));
+            
+            // Length 0 selects chunked encoding, so the page is written as it is produced
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                JsonWriter out = new JsonWriter(os);
+                out.beginObject().name("certificates").beginArray();
+                int count = 0;
+                String last = null;
+                while (count < limit && records.hasNext()) {
+                    CertificateRecord r = records.next();
+                    writeRecord(out, r);
+                    last = r.id();
+                    count++;
+                }
+                out.endArray().field("nextCursor", last != null && records.hasNext() ? last : null);
+                out.endObject().flush();
+            }
+        }
+        
+        static void writeRecord(JsonWriter out, CertificateRecord r) throws IOException {
+            writeRecordFields(out.beginObject(), r).endObject();
+        }
+        
+        static JsonWriter writeRecordFields(JsonWriter out, CertificateRecord r) throws IOException {
+            return out.field("id", r.id())
+                      .field("name", r.name())
+                      .field("type", r.type())
+                      .field("course", r.course())
+                      .field("date", r.date())
+                      .field("instructor", r.instructor())
+                      .field("hours", r.hours())
+                      .field("status", r.status());
+        }
+    }
+    
+    /**
+     * Finds certificates by name, course or instructor: every word of q must match a word
+     * of one of them, or the start of one. Results are ranked best first; "complete" is
+     * false when the query matched more certificates than were ranked.
+     */
+    static class SearchHandler implements HttpHandler {
+        private static final int MAX_LIMIT = 100;
+        
+        private final CertificateSearch search;
+        
+        SearchHandler(CertificateSearch search) {
+            this.search = search;
+        }
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Map<String, String> params = RequestParams.query(exchange);
+            String query = params.get("q");
+            int limit;
+            try {
+                limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : 20;
+            } catch (NumberFormatException e) {
+                limit = -1;
+            }
+            if (query == null || query.isBlank() || limit <= 0 || limit > MAX_LIMIT) {
+                sendJson(exchange, 400, "{\"results\": [], \"error\": \"Missing q, or limit not between 1 and "
+                        + MAX_LIMIT + "\"}");
+                return;
+            }
+            
+            CertificateSearch.Result result = search.search(query, params.get("status"), limit);
+            JsonWriter json = JsonWriter.buffered().beginObject()
+                    .field("query", query)
+                    .field("complete", result.complete)
+                    .name("results").beginArray();
+            for (CertificateSearch.Hit hit : result.hits) {
+                ListCertificatesHandler.writeRecordFields(json.beginObject(), hit.record)
+                        .field("score", hit.score)
+                        .endObject();
+            }
+            json.endArray().endObject().send(exchange, 200);
+        }
+    }
+    
+    static class RevokeCertificateHandler implements HttpHandler {
+        private final CertificateRegistry registry;
+        
+        RevokeCertificateHandler(CertificateRegistry registry) {
+            this.registry = registry;
+        }
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            try {
+                String certId = RequestParams.all(exchange).get("id");
+                if (certId == null) {
+                    sendJson(exchange, 400, "{\"success\": false, \"error\": \"Certificate ID not provided\"}");
+                    return;
+                }
                 
+                CertificateRegistry.RevokeResult result = registry.revoke(certId);
+                if (result != CertificateRegistry.RevokeResult.NOT_FOUND) {
+                    sendJson(exchange, 200, "{\"success\": true}");
+                } else {
+                    sendJson(exchange, 404, "{\"success\": false, \"error\": \"Certificate not found\"}");
+                }
+            } catch (RequestParams.InvalidRequestException e) {
+                JsonWriter.buffered().beginObject().field("success", false)
+                        .field("error", e.getMessage()).endObject().send(exchange, 400);
             } catch (Exception e) {
                 e.printStackTrace();
-                String response = "{\"certificates\": [], \"error\": \"" + e.getMessage() + "\"}";
-                exchange.getResponseHeaders().set("Content-Type", "application/json");
-                exchange.sendResponseHeaders(500, response.length());
-                OutputStream os = exchange.getResponseBody();
-                os.write(response.getBytes());
-                os.close();
+                JsonWriter.buffered().beginObject().field("success", false)
+                        .field("error", String.valueOf(e.getMessage())).endObject().send(exchange, 500);
             }
         }
+    }
+    
+    /**
+     * Revokes many certificates in one atomic batch, either those listed in the body
+     * (separated by newlines, commas or whitespace) or those matching the filter in the
+     * query (course, type, from, to, name). With dryRun=true it only reports what a
+     * filter would revoke.
+     */
+    static class BatchRevokeHandler implements HttpHandler {
+        private static final int MAX_BATCH = 500_000;
+        private static final int MAX_BODY = 32 << 20;
+        
+        private final CertificateRegistry registry;
+        
+        BatchRevokeHandler(CertificateRegistry registry) {
+            this.registry = registry;
+        }
         
-        private String extractValue(String line, String tag) {
-            String startTag = "<" + tag + ">";
-            String endTag = "</" + tag + ">";
-            int start = line.indexOf(startTag) + startTag.length();
-            int end = line.indexOf(endTag);
-            if (start > 0 && end > start) {
-                return unescapeXml(line.substring(start, end));
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            
+            Map<String, String> params = RequestParams.query(exchange);
+            CertificateRegistry.Filter filter = new CertificateRegistry.Filter()
+                    .type(params.get("type"))
+                    .course(params.get("course"))
+                    .from(params.get("from"))
+                    .to(params.get("to"))
+                    .namePrefix(params.get("name"));
+            
+            byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+            if (body.length > MAX_BODY) {
+                sendJson(exchange, 413, "{\"success\": false, \"error\": \"Request body too large\"}");
+                return;
+            }
+            
+            List<String> ids = new ArrayList<>();
+            for (String token : new String(body, StandardCharsets.UTF_8).split("[\\s,\\[\\]\"]+")) {
+                if (!token.isEmpty()) {
+                    ids.add(token);
+                }
+            }
+            if (!filter.isEmpty()) {
+                filter.status(CertificateRecord.ACTIVE);
+                Iterator<CertificateRecord> matches = registry.find(filter, null, false);
+                while (matches.hasNext() && ids.size() <= MAX_BATCH) {
+                    ids.add(matches.next().id());
+                }
             }
-            return "";
+            if (ids.isEmpty() && filter.isEmpty()) {
+                sendJson(exchange, 400, "{\"success\": false, \"error\": \"No certificate IDs or filter given\"}");
+                return;
+            }
+            if (ids.size() > MAX_BATCH) {
+                sendJson(exchange, 413, "{\"success\": false, \"error\": \"More than " + MAX_BATCH +
+                                        " certificates in one batch\"}");
+                return;
+            }
+            
+            if ("true".equals(params.get("dryRun"))) {
+                sendJson(exchange, 200, "{\"success\": true, \"dryRun\": true, \"matched\": " + ids.size() + "}");
+                return;
+            }
+            
+            CertificateRegistry.BatchRevokeResult result = registry.revokeAll(ids);
+            JsonWriter json = JsonWriter.buffered().beginObject()
+                    .field("success", true)
+                    .field("revoked", result.revoked.size())
+                    .field("alreadyRevoked", result.alreadyRevoked)
+                    .name("notFound").beginArray();
+            for (String id : result.notFound) {
+                json.value(id);
+            }
+            json.endArray().endObject().send(exchange, 200);
         }
+    }
+    
+    /**
+     * Serves the revocation list: everything with no cursor, or only what was revoked
+     * after ?epoch=&since= from a previous answer. The full list carries an ETag, so an
+     * unchanged list costs a 304.
+     */
+    static class RevocationsHandler implements HttpHandler {
+        private final RevocationList revocations;
         
-        private String escapeJson(String s) {
-            return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        RevocationsHandler(RevocationList revocations) {
+            this.revocations = revocations;
         }
         
-        private String unescapeXml(String s) {
-            return s.replace("&amp;", "&").replace("&lt;", "<")
-                    .replace("&gt;", ">").replace("&quot;", "\"")
-                    .replace("&apos;", "'");
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Map<String, String> params = RequestParams.query(exchange);
+            RevocationList.Snapshot snapshot;
+            try {
+                snapshot = params.containsKey("since")
+                        ? revocations.since(Long.parseLong(params.getOrDefault("epoch", "0")),
+                                            Long.parseLong(params.get("since")))
+                        : revocations.full();
+            } catch (NumberFormatException e) {
+                sendJson(exchange, 400, "{\"success\": false, \"error\": \"Invalid epoch or since\"}");
+                return;
+            }
+            
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", "application/json");
+            headers.set("Cache-Control", "no-cache");
+            headers.set("Vary", "Accept-Encoding");
+            if (snapshot.full) {
+                String etag = "\"" + revocations.epoch() + "-" + snapshot.seq + "\"";
+                headers.set("ETag", etag);
+                if (DownloadHandler.matchesAny(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+            }
+            
+            byte[] body = snapshot.body;
+            if (body.length > 1024 && StaticAssetCache.accepts(
+                    exchange.getRequestHeaders().getFirst("Accept-Encoding"), "gzip")) {
+                body = snapshot.gzipped();
+                headers.set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
         }
     }
     
-    static class RevokeCertificateHandler implements HttpHandler {
+    /**
+     * Counts the response bytes a handler writes, whichever way it writes them.
+     */
+    static class CountingOutputStream extends FilterOutputStream {
+        long count;
+        
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+    
+    /**
+     * Serves every metric in the Prometheus text exposition format.
+     */
+    static class MetricsHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            if ("POST".equals(exchange.getRequestMethod())) {
-                try {
-                    String query = exchange.getRequestURI().getQuery();
-                    String certId = null;
-                    
-                    if (query != null) {
-                        for (String param : query.split("&")) {
-                            String[] pair = param.split("=");
-                            if (pair.length > 1 && pair[0].equals("id")) {
-                                certId = URLDecoder.decode(pair[1], "UTF-8");
-                            }
-                        }
-                    }
-                    
-                    if (certId == null) {
-                        String response = "{\"success\": false, \"error\": \"Certificate ID not provided\"}";
-                        exchange.getResponseHeaders().set("Content-Type", "application/json");
-                        exchange.sendResponseHeaders(400, response.length());
-                        OutputStream os = exchange.getResponseBody();
-                        os.write(response.getBytes());
-                        os.close();
-                        return;
-                    }
-                    
-                    File xmlFile = new File("data/certificates.xml");
-                    if (!xmlFile.exists()) {
-                        String response = "{\"success\": false, \"error\": \"No certificates found\"}";
-                        exchange.getResponseHeaders().set("Content-Type", "application/json");
-                        exchange.sendResponseHeaders(404, response.length());
-                        OutputStream os = exchange.getResponseBody();
-                        os.write(response.getBytes());
-                        os.close();
-                        return;
-                    }
-                    
-                    // Read and update XML
-                    StringBuilder xmlContent = new StringBuilder();
-                    BufferedReader reader = new BufferedReader(new FileReader(xmlFile));
-                    String line;
-                    boolean inTargetCert = false;
-                    boolean foundCert = false;
-                    
-                    while ((line = reader.readLine()) != null) {
-                        if (line.contains("<certificate>")) {
-                            inTargetCert = false;
-                        }
-                        
-                        if (inTargetCert && line.contains("<status>")) {
-                            // Skip existing status line
-                            continue;
-                        }
-                        
-                        if (line.contains("<id>" + certId + "</id>")) {
-                            inTargetCert = true;
-                            foundCert = true;
-                        }
-                        
-                        xmlContent.append(line).append("\n");
-                        
-                        if (inTargetCert && line.contains("</generated>")) {
-                            xmlContent.append("    <status>Revoked</status>\n");
-                        }
-                    }
-                    reader.close();
-                    
-                    if (foundCert) {
-                        FileWriter writer = new FileWriter(xmlFile);
-                        writer.write(xmlContent.toString());
-                        writer.close();
-                        
-                        String response = "{\"success\": true}";
-                        exchange.getResponseHeaders().set("Content-Type", "application/json");
-                        exchange.sendResponseHeaders(200, response.length());
-                        OutputStream os = exchange.getResponseBody();
-                        os.write(response.getBytes());
-                        os.close();
-                    } else {
-                        String response = "{\"success\": false, \"error\": \"Certificate not found\"}";
-                        exchange.getResponseHeaders().set("Content-Type", "application/json");
-                        exchange.sendResponseHeaders(404, response.length());
-                        OutputStream os = exchange.getResponseBody();
-                        os.write(response.getBytes());
-                        os.close();
-                    }
-                    
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    String response = "{\"success\": false, \"error\": \"" + e.getMessage() + "\"}";
-                    exchange.getResponseHeaders().set("Content-Type", "application/json");
-                    exchange.sendResponseHeaders(500, response.length());
-                    OutputStream os = exchange.getResponseBody();
-                    os.write(response.getBytes());
-                    os.close();
-                }
-            } else {
-                exchange.sendResponseHeaders(405, -1);
+            StringWriter text = new StringWriter(16 * 1024);
+            Metrics.write(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
             }
         }
     }
-}
\ No newline at end of file
+}
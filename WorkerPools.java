@@ -0,0 +1,193 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Execution model for the HTTP handlers. CPU-heavy certificate generation and the
+ * cheap read endpoints run on separate pools so one slow PDF render cannot hold up
+ * downloads. Each pool admits at most {@code threads + queue} requests; anything
+ * beyond that is rejected up front so the server can answer 503 instead of queueing
+ * without bound.
+ *
+ * Configured with system properties:
+ *   cert.pool.mode            platform (default) or virtual (JDK 21+)
+ *   cert.pool.generateThreads worker threads for /generate (default: cores)
+ *   cert.pool.generateQueue   queued /generate requests (default: 64)
+ *   cert.pool.readThreads     worker threads for read endpoints (default: cores * 4)
+ *   cert.pool.readQueue       queued read requests (default: 1024)
+ *   cert.pool.retryAfter      Retry-After seconds sent with 503 (default: 5)
+ */
+public class WorkerPools {
+
+    private final BoundedPool generatePool;
+    private final BoundedPool readPool;
+    private final int retryAfterSeconds;
+
+    public WorkerPools(boolean virtual, int generateThreads, int generateQueue,
+                       int readThreads, int readQueue, int retryAfterSeconds) {
+        this.generatePool = new BoundedPool("generate", virtual, generateThreads, generateQueue);
+        this.readPool = new BoundedPool("read", virtual, readThreads, readQueue);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public static WorkerPools fromSystemProperties() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        boolean virtual = "virtual".equalsIgnoreCase(System.getProperty("cert.pool.mode", "platform"));
+        return new WorkerPools(virtual,
+                Integer.getInteger("cert.pool.generateThreads", cores),
+                Integer.getInteger("cert.pool.generateQueue", 64),
+                Integer.getInteger("cert.pool.readThreads", cores * 4),
+                Integer.getInteger("cert.pool.readQueue", 1024),
+                Integer.getInteger("cert.pool.retryAfter", 5));
+    }
+
+    public BoundedPool generatePool() {
+        return generatePool;
+    }
+
+    public BoundedPool readPool() {
+        return readPool;
+    }
+
+    public int retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public void shutdown() {
+        generatePool.shutdown();
+        readPool.shutdown();
+    }
+
+    /**
+     * A fixed number of workers plus a bounded number of waiting tasks. In virtual mode
+     * every admitted task gets its own virtual thread and waits on a semaphore for one
+     * of the worker slots, so queued requests cost no platform threads.
+     */
+    public static class BoundedPool {
+
+        private final String name;
+        private final int threads;
+        private final int queueCapacity;
+        private final Semaphore admission;
+        private final Semaphore running;
+        private final ExecutorService executor;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger admitted = new AtomicInteger();
+
+        BoundedPool(String name, boolean virtual, int threads, int queueCapacity) {
+            this.name = name;
+            this.threads = Math.max(1, threads);
+            this.queueCapacity = Math.max(0, queueCapacity);
+            this.admission = new Semaphore(this.threads + this.queueCapacity);
+            ExecutorService perTask = virtual ? virtualThreads(name) : null;
+            if (perTask != null) {
+                this.running = new Semaphore(this.threads);
+                this.executor = perTask;
+            } else {
+                this.running = null;
+                this.executor = Executors.newFixedThreadPool(this.threads, namedFactory(name));
+            }
+        }
+
+        /**
+         * Runs the task if there is room for it, otherwise returns false straight away.
+         */
+        public boolean trySubmit(Runnable task) {
+            if (!admission.tryAcquire()) {
+                return false;
+            }
+            admitted.incrementAndGet();
+            try {
+                executor.execute(() -> run(task));
+                return true;
+            } catch (RuntimeException e) {
+                admitted.decrementAndGet();
+                admission.release();
+                return false;
+            }
+        }
+
+        private void run(Runnable task) {
+            boolean gated = false;
+            try {
+                if (running != null) {
+                    running.acquire();
+                    gated = true;
+                }
+                active.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    active.decrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (gated) {
+                    running.release();
+                }
+                admitted.decrementAndGet();
+                admission.release();
+            }
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public int threads() {
+            return threads;
+        }
+
+        public int queueCapacity() {
+            return queueCapacity;
+        }
+
+        public int activeCount() {
+            return active.get();
+        }
+
+        public int queueDepth() {
+            return Math.max(0, admitted.get() - active.get());
+        }
+
+        void shutdown() {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * An executor starting a virtual thread per task, or null before JDK 21. Looked up
+         * reflectively so the server still compiles and runs on JDK 17.
+         */
+        private static ExecutorService virtualThreads(String name) {
+            try {
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+                ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("cert.pool.mode=virtual needs JDK 21; the " + name + " pool uses platform threads");
+                return null;
+            }
+        }
+
+        private static ThreadFactory namedFactory(String name) {
+            AtomicInteger counter = new AtomicInteger();
+            return r -> {
+                Thread t = new Thread(r, name + "-" + counter.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+    }
+}